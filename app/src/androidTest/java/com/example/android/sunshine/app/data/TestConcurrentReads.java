@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestConcurrentReads extends AndroidTestCase {
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int FORECAST_DAYS = 14;
+    private static final int WRITE_ROWS = 50000;
+    private static final int READS = 50;
+
+    private WeatherDbHelper mHelper;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        mLocationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(mLocationId != -1);
+        write(db, 0, FORECAST_DAYS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void write(SQLiteDatabase db, int firstDay, int days) {
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            for (int day = firstDay; day < firstDay + days; day++) {
+                ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                inserter.insert(values);
+            }
+        } finally {
+            inserter.close();
+        }
+    }
+
+    /*
+        While a sync holds a large write transaction open, the forecast list has to keep
+        reading the forecast that was committed before it, without waiting for the write.
+        The read latencies go to the log, run with: adb logcat -s TestConcurrentReads
+     */
+    public void testReadsDuringWrite() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // The rollback journal makes readers wait for the writer, there's nothing to test
+            return;
+        }
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readsDone = new CountDownLatch(1);
+        final Throwable[] writeError = new Throwable[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    db.beginTransaction();
+                    try {
+                        writing.countDown();
+                        write(db, FORECAST_DAYS, WRITE_ROWS);
+                        // Hold the transaction until the reads are over, however fast they are
+                        readsDone.await(30, TimeUnit.SECONDS);
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                } catch (Throwable e) {
+                    writeError[0] = e;
+                    writing.countDown();
+                }
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        long[] latencies = new long[READS];
+        try {
+            for (int i = 0; i < READS; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[]{Long.toString(mLocationId)},
+                        null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                try {
+                    // Readers see the last commit, none of the rows being written
+                    assertEquals(FORECAST_DAYS, cursor.getCount());
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            readsDone.countDown();
+            writer.join();
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+
+        Arrays.sort(latencies);
+        long medianMicros = latencies[READS / 2] / 1000;
+        long maxMicros = latencies[READS - 1] / 1000;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Reads during a %d row write: median %d us, max %d us",
+                WRITE_ROWS, medianMicros, maxMicros));
+        assertTrue("Error: A read waited " + maxMicros + " us for the writer",
+                maxMicros < TimeUnit.SECONDS.toMicros(1));
+
+        // And once the write committed, the readers see it
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            assertEquals(FORECAST_DAYS + WRITE_ROWS, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+}
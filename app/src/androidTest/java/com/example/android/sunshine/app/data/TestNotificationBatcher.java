@@ -0,0 +1,76 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestNotificationBatcher extends AndroidTestCase {
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        // Let the notifications of the setup go
+        Thread.sleep(NotificationBatcher.MAX_DELAY_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /*
+        The writes of a sync, and a change of units in the settings, reach the observers of the
+        forecast as a single notification per table.
+     */
+    public void testMergedNotifications() throws Exception {
+        TestProvider.CountingObserver weatherObserver =
+                TestProvider.CountingObserver.getCountingObserver();
+        TestProvider.CountingObserver hourlyObserver =
+                TestProvider.CountingObserver.getCountingObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                weatherObserver);
+        mContext.getContentResolver().registerContentObserver(
+                HourlyEntry.CONTENT_URI, true, hourlyObserver);
+        int fired = NotificationBatcher.getFiredCount();
+        int delivered = NotificationBatcher.getDeliveredCount();
+
+        ContentValues[] days = TestProvider.createBulkInsertWeatherValues(mLocationId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                TestProvider.createBulkInsertHourlyValues(mLocationId));
+        for (ContentValues day : days) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+            mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                    WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(WeatherContract.normalizeDate(
+                            day.getAsLong(WeatherEntry.COLUMN_DATE)))});
+        }
+        NotificationBatcher.notifyChange(mContext, WeatherEntry.CONTENT_URI);
+
+        assertEquals("Error: The weather changes weren't merged",
+                1, weatherObserver.waitForChanges());
+        assertEquals("Error: The hourly changes weren't merged",
+                1, hourlyObserver.waitForChanges());
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+
+        assertEquals(2 + days.length + 1, NotificationBatcher.getFiredCount() - fired);
+        assertEquals(2, NotificationBatcher.getDeliveredCount() - delivered);
+    }
+}
@@ -16,19 +16,32 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -56,6 +69,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -155,6 +173,17 @@ public class TestProvider extends AndroidTestCase {
         assertEquals("Error: the WeatherEntry CONTENT_URI with location and date should return WeatherEntry.CONTENT_ITEM_TYPE",
                 WeatherEntry.CONTENT_ITEM_TYPE, type);
 
+        // content://com.example.android.sunshine.app/location/1/weather
+        type = mContext.getContentResolver().getType(WeatherEntry.buildWeatherLocationId(1));
+        assertEquals("Error: the WeatherEntry CONTENT_URI with location id should return WeatherEntry.CONTENT_TYPE",
+                WeatherEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/location/1/weather/1419120000
+        type = mContext.getContentResolver().getType(
+                WeatherEntry.buildWeatherLocationIdWithDate(1, testDate));
+        assertEquals("Error: the WeatherEntry CONTENT_URI with location id and date should return WeatherEntry.CONTENT_ITEM_TYPE",
+                WeatherEntry.CONTENT_ITEM_TYPE, type);
+
         // content://com.example.android.sunshine.app/location/
         type = mContext.getContentResolver().getType(LocationEntry.CONTENT_URI);
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
@@ -286,6 +315,35 @@ public class TestProvider extends AndroidTestCase {
         cursor.close();
     }
 
+    /*
+        Inserting a location that is already stored hands back the stored row, and changes to
+        the location table clear the ids cached for the sync adapter.
+     */
+    public void testInsertOrGetLocation() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        Uri first = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        Uri second = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        assertEquals("Error: Inserting a stored location didn't return its row", first, second);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Inserting a stored location added a row", 1, cursor.getCount());
+        cursor.close();
+
+        String locationSetting = values.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+        long locationRowId = ContentUris.parseId(first);
+        LocationIdCache.put(locationSetting, locationRowId, LocationIdCache.getGeneration());
+        assertEquals(locationRowId, LocationIdCache.get(locationSetting));
+
+        // A lookup that started before an invalidation must not be cached
+        long generation = LocationIdCache.getGeneration();
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertEquals("Error: Deleting locations didn't clear the cache",
+                -1, LocationIdCache.get(locationSetting));
+        LocationIdCache.put(locationSetting, locationRowId, generation);
+        assertEquals("Error: A stale id was cached", -1, LocationIdCache.get(locationSetting));
+    }
+
 
     // Make sure we can still delete after adding/updating stuff
     //
@@ -422,6 +480,55 @@ public class TestProvider extends AndroidTestCase {
     }
 
 
+    /*
+        The summaries read through call hold the same days as a query of the same uri.
+     */
+    public void testGetSummary() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        WeatherEntry.Summary days = WeatherEntry.getDays(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, 3);
+        assertEquals("Error: The summary doesn't hold the days asked for", 3, days.size());
+        for (int i = 0; i < days.size(); i++) {
+            ContentValues expected = bulkInsertContentValues[i];
+            assertEquals(WeatherContract.normalizeDate(expected.getAsLong(WeatherEntry.COLUMN_DATE)),
+                    days.getDate(i));
+            assertEquals((int) expected.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    days.getWeatherId(i));
+            assertEquals(expected.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    days.getDescription(i));
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), days.getHigh(i), 0);
+            assertEquals(expected.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), days.getLow(i), 0);
+        }
+
+        // A single day, and a day that isn't stored
+        WeatherEntry.Summary day = WeatherEntry.getSummary(mContext.getContentResolver(),
+                WeatherEntry.buildWeatherLocationIdWithDate(locationRowId,
+                        days.getDate(1)), 1);
+        assertEquals(1, day.size());
+        assertEquals(days.getDate(1), day.getDate(0));
+        day = WeatherEntry.getSummary(mContext.getContentResolver(),
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, 0), 1);
+        assertEquals("Error: A day that isn't stored was returned", 0, day.size());
+
+        // More days than are stored
+        days = WeatherEntry.getDays(mContext.getContentResolver(),
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE, 100);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, days.size());
+
+        // A call without a uri is turned down rather than crashing the provider
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            try {
+                mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                        WeatherContract.METHOD_GET_SUMMARY, null, null);
+                fail("Error: A summary without a uri was answered");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
         long currentTestDate = TestUtilities.TEST_DATE;
@@ -512,4 +619,253 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    static private final int HOURLY_RECORDS_TO_INSERT = 40;
+    static private final long MILLISECONDS_IN_A_STEP = 3 * 60 * 60 * 1000;
+    static ContentValues[] createBulkInsertHourlyValues(long locationRowId) {
+        ContentValues[] returnContentValues = new ContentValues[HOURLY_RECORDS_TO_INSERT];
+        for (int i = 0; i < HOURLY_RECORDS_TO_INSERT; i++) {
+            ContentValues hourlyValues = new ContentValues();
+            hourlyValues.put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            hourlyValues.put(HourlyEntry.COLUMN_TIME,
+                    TestUtilities.TEST_DATE + i * MILLISECONDS_IN_A_STEP);
+            hourlyValues.put(HourlyEntry.COLUMN_TEMP, 20.5 - 0.25 * i);
+            hourlyValues.put(HourlyEntry.COLUMN_HUMIDITY, 40.5 + i);
+            hourlyValues.put(HourlyEntry.COLUMN_PRESSURE, 1013.5);
+            hourlyValues.put(HourlyEntry.COLUMN_WIND_SPEED, 3.5 + 0.1 * i);
+            hourlyValues.put(HourlyEntry.COLUMN_DEGREES, 270.0);
+            hourlyValues.put(HourlyEntry.COLUMN_PRECIPITATION, i % 4 == 0 ? 1.5 : 0.0);
+            hourlyValues.put(HourlyEntry.COLUMN_SHORT_DESC, "Meteors");
+            hourlyValues.put(HourlyEntry.COLUMN_WEATHER_ID, 500);
+            returnContentValues[i] = hourlyValues;
+        }
+        return returnContentValues;
+    }
+
+    // Bulk insert a sync's worth of hourly steps, then read back the ones of a single day through
+    // the location's hourly uri.
+    public void testHourlyRangeQuery() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        String locationSetting = testValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+
+        ContentValues[] hourlyValues = createBulkInsertHourlyValues(locationRowId);
+
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(HourlyEntry.CONTENT_URI, true, hourlyObserver);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourlyValues);
+
+        hourlyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+        assertEquals(HOURLY_RECORDS_TO_INSERT, insertCount);
+
+        // Inserting the same steps again replaces them rather than adding to them
+        insertCount = mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourlyValues);
+        assertEquals(HOURLY_RECORDS_TO_INSERT, insertCount);
+
+        // The second day is made of steps 8 to 15
+        long dayStart = TestUtilities.TEST_DATE + 8 * MILLISECONDS_IN_A_STEP;
+        Uri rangeUri = HourlyEntry.buildHourlyLocationWithRange(
+                locationSetting, dayStart, dayStart + 8 * MILLISECONDS_IN_A_STEP);
+        assertEquals("Error: The hourly uri has the wrong type",
+                HourlyEntry.CONTENT_TYPE, mContext.getContentResolver().getType(rangeUri));
+
+        Cursor cursor = mContext.getContentResolver().query(rangeUri, null, null, null, null);
+        assertEquals("Error: The range query returned the wrong steps", 8, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 8; i < 16; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testHourlyRangeQuery.  Error validating HourlyEntry " + i,
+                    cursor, hourlyValues[i]);
+        }
+        cursor.close();
+
+        // Without a range every step of the location is returned
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(locationSetting), null, null, null, null);
+        assertEquals(HOURLY_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // Counts the notifications of a uri, unlike TestContentObserver which only waits for one
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        volatile int mChanges;
+
+        static CountingObserver getCountingObserver() {
+            HandlerThread ht = new HandlerThread("CountingObserverThread");
+            ht.start();
+            return new CountingObserver(ht);
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges++;
+        }
+
+        int waitForChanges() throws InterruptedException {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mChanges > 0;
+                }
+            }.run();
+            // Give any further notification the time to arrive before counting
+            Thread.sleep(500);
+            mHT.quit();
+            return mChanges;
+        }
+    }
+
+    // Replacing the window of a location inserts the new steps and drops the ones before them
+    // as one change, which observers hear about once.
+    public void testReplaceHourlyWindow() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] hourlyValues = createBulkInsertHourlyValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, hourlyValues);
+
+        // The next sync's forecast starts 8 steps later
+        ContentValues[] newValues = Arrays.copyOfRange(hourlyValues, 8, HOURLY_RECORDS_TO_INSERT);
+        long windowStart = newValues[0].getAsLong(HourlyEntry.COLUMN_TIME);
+
+        CountingObserver hourlyObserver = CountingObserver.getCountingObserver();
+        mContext.getContentResolver().registerContentObserver(HourlyEntry.CONTENT_URI, true, hourlyObserver);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                HourlyEntry.buildHourlyWindow(locationRowId, windowStart), newValues);
+
+        assertEquals("Error: The window wasn't replaced with a single notification",
+                1, hourlyObserver.waitForChanges());
+        mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+        assertEquals(newValues.length, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(testValues.getAsString(
+                        LocationEntry.COLUMN_LOCATION_SETTING)),
+                null, null, null, HourlyEntry.COLUMN_TIME + " ASC");
+        assertEquals("Error: The steps before the window weren't dropped",
+                newValues.length, cursor.getCount());
+        cursor.moveToFirst();
+        TestUtilities.validateCurrentRecord("testReplaceHourlyWindow.  Error validating the first step",
+                cursor, newValues[0]);
+        cursor.close();
+    }
+
+    // Make sure a batch of inserts and a delete lands as a whole, and that observers hear
+    // about it.
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : bulkInsertContentValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        // Drop the first day again, as a sync prunes the days before today
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("Error: Not every operation returned a result",
+                operations.size(), results.length);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: The batch didn't leave the expected rows behind",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 1; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Days written from a batch land like the ones of applyBatch, the days up to the prune
+        date go in the same call, and observers hear about it.
+     */
+    public void testWriteDays() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        ForecastBatch batch = new ForecastBatch();
+        ForecastParser.Day day = new ForecastParser.Day();
+        for (ContentValues values : bulkInsertContentValues) {
+            day.humidity = values.getAsInteger(WeatherEntry.COLUMN_HUMIDITY);
+            day.pressure = values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            day.windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            day.windDirection = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+            day.high = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            day.low = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            day.description = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+            day.weatherId = values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            batch.add(values.getAsLong(WeatherEntry.COLUMN_DATE), day);
+            // Stored whole, as the sync has it
+            values.put(WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+        }
+        int[] rows = new int[batch.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+        }
+        // The first day on its own, then the others along with the pruning of the first
+        WeatherEntry.writeDays(mContext.getContentResolver(), locationRowId, batch,
+                rows, 1, -1);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        Bundle result = WeatherEntry.writeDays(mContext.getContentResolver(), locationRowId,
+                batch, Arrays.copyOfRange(rows, 1, rows.length), rows.length - 1,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE));
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1,
+                result.getInt(WeatherContract.EXTRA_ROWS_STORED));
+        assertEquals("Error: The first day wasn't pruned", 1,
+                result.getInt(WeatherContract.EXTRA_ROWS_PRUNED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: The days written didn't leave the expected rows behind",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 1; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testWriteDays.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+    }
 }
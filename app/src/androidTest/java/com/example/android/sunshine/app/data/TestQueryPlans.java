@@ -0,0 +1,189 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.regex.Pattern;
+
+/*
+    Checks the plan SQLite picks for the query behind every uri of the provider, with the
+    projections and sort orders the app uses.  A query that has to scan a whole table, or sort
+    its rows itself, slows down as the history and the locations grow, so it fails the test.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String LOCATION_SETTING = TestUtilities.TEST_LOCATION;
+    private static final long DATE = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+    // "SCAN TABLE weather" on older releases, "SCAN weather" on newer ones
+    private static final Pattern FULL_SCAN = Pattern.compile(
+            "^SCAN (TABLE )?(" + WeatherEntry.TABLE_NAME + "|" + HourlyEntry.TABLE_NAME +
+                    "|" + LocationEntry.TABLE_NAME + ")\\b");
+    private static final String TEMP_SORT = "USE TEMP B-TREE";
+
+    // The columns of the forecast list and of the detail view
+    private static final String[] LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    private static final String DATE_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // The columns of the widgets, Muzei and the notification, all from the weather table
+    private static final String[] SUMMARY_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        // The location settings of the weather uris are resolved to this row
+        mLocationId = mDb.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(mLocationId != -1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void assertIndexed(String name, Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder) {
+        assertIndexed(name, WeatherProvider.buildQuery(
+                mDb, uri, projection, selection, selectionArgs, sortOrder));
+    }
+
+    private void assertIndexed(String name, WeatherProvider.Query query) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.selectionArgs);
+        try {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            assertTrue("Error: No plan for " + name, cursor.getCount() > 0);
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                Log.d(LOG_TAG, name + ": " + detail);
+                assertFalse("Error: " + name + " scans a whole table: " + detail,
+                        FULL_SCAN.matcher(detail).find());
+                assertFalse("Error: " + name + " sorts its rows: " + detail,
+                        detail.startsWith(TEMP_SORT));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testForecastList() {
+        assertIndexed("weather/*?date",
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_SETTING, DATE),
+                LIST_COLUMNS, null, null, DATE_ORDER);
+        assertIndexed("weather/*",
+                WeatherEntry.buildWeatherLocation(LOCATION_SETTING),
+                LIST_COLUMNS, null, null, DATE_ORDER);
+    }
+
+    public void testLocationIdUris() {
+        assertIndexed("location/#/weather?date",
+                WeatherEntry.buildWeatherLocationIdWithStartDate(mLocationId, DATE),
+                LIST_COLUMNS, null, null, DATE_ORDER);
+        assertIndexed("location/#/weather/#",
+                WeatherEntry.buildWeatherLocationIdWithDate(mLocationId, DATE),
+                DETAIL_COLUMNS, null, null, null);
+    }
+
+    /*
+        Projections of weather columns only are answered from the weather table, without
+        the location table.
+     */
+    public void testWeatherColumnsOnly() {
+        Uri[] uris = {
+                WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_SETTING, DATE),
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_SETTING, DATE),
+                WeatherEntry.buildWeatherLocationIdWithStartDate(mLocationId, DATE)
+        };
+        for (Uri uri : uris) {
+            assertIndexed(uri.toString(), uri, SUMMARY_COLUMNS, null, null, DATE_ORDER);
+            WeatherProvider.Query query = WeatherProvider.buildQuery(
+                    mDb, uri, SUMMARY_COLUMNS, null, null, DATE_ORDER);
+            assertFalse("Error: " + uri + " joins the location table: " + query.sql,
+                    query.sql.contains(" JOIN "));
+            assertEquals(Long.toString(mLocationId), query.selectionArgs[0]);
+        }
+    }
+
+    public void testSnapshot() {
+        assertIndexed("snapshot", WeatherProvider.getSnapshotQuery(mLocationId, DATE));
+    }
+
+    public void testDetail() {
+        assertIndexed("weather/*/#",
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_SETTING, DATE),
+                DETAIL_COLUMNS, null, null, null);
+    }
+
+    public void testHourly() {
+        assertIndexed("weather/*/hourly",
+                HourlyEntry.buildHourlyLocationWithRange(LOCATION_SETTING, DATE, Long.MAX_VALUE),
+                null, null, null, null);
+    }
+
+    /*
+        The table uris take any selection, these are the ones the app makes.  Without a
+        selection they read the whole table, which is what they are asked for.
+     */
+    public void testTables() {
+        assertIndexed("weather by location id", WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{"1"},
+                null);
+        assertIndexed("hourly by location id", HourlyEntry.CONTENT_URI,
+                null,
+                HourlyEntry.COLUMN_LOC_KEY + " = ? AND " + HourlyEntry.COLUMN_TIME + " < ?",
+                new String[]{"1", Long.toString(DATE)},
+                null);
+        assertIndexed("location by setting", LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{LOCATION_SETTING},
+                null);
+    }
+}
@@ -34,8 +34,15 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/weather/London, UK/hourly"
+    private static final Uri TEST_WEATHER_WITH_LOCATION_HOURLY_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 86400000L);
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/10/weather"
+    private static final Uri TEST_LOCATION_ID_WEATHER_DIR = WeatherContract.WeatherEntry.buildWeatherLocationIdWithStartDate(TEST_LOCATION_ID, TEST_DATE);
+    private static final Uri TEST_LOCATION_ID_WEATHER_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(TEST_LOCATION_ID, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +58,15 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATION HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_HOURLY_DIR), WeatherProvider.WEATHER_WITH_LOCATION_HOURLY);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION ID WEATHER URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_ID_WEATHER_DIR), WeatherProvider.LOCATION_ID_WEATHER);
+        assertEquals("Error: The LOCATION ID WEATHER AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_ID_WEATHER_AND_DATE_DIR), WeatherProvider.LOCATION_ID_WEATHER_AND_DATE);
     }
 }
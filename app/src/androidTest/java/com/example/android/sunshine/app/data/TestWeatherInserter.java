@@ -0,0 +1,226 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastParser;
+
+import java.util.Locale;
+
+public class TestWeatherInserter extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherInserter.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final int BULK_INSERT_ROWS = 1000;
+
+    // How measure stores the rows
+    private static final int MODE_INSERT = 0;
+    private static final int MODE_COMPILED = 1;
+    private static final int MODE_PRIMITIVES = 2;
+
+    private SQLiteDatabase mDb;
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue(mLocationId != -1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static ContentValues createWeatherValues(long locationId, int day,
+                                                     double maxTemp) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+        return values;
+    }
+
+    private int insert(WeatherInserter inserter, int day, double maxTemp) {
+        return inserter.insert(createWeatherValues(mLocationId, day, maxTemp));
+    }
+
+    // The values of TestUtilities.createWeatherValues, with the humidity whole as the sync has it
+    private int insertPrimitives(WeatherInserter inserter, int day, double maxTemp) {
+        return inserter.insert(mLocationId, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS,
+                1, 1.3, 5.5, 1.1, maxTemp, 65, "Asteroids", 321);
+    }
+
+    public void testOutcomes() {
+        WeatherInserter inserter = new WeatherInserter(mDb);
+        try {
+            assertEquals(WeatherInserter.OUTCOME_STORED, insert(inserter, 0, 75));
+            long firstId = inserter.getRowId();
+            assertTrue(firstId != -1);
+            assertEquals(WeatherInserter.OUTCOME_STORED, insert(inserter, 1, 75));
+            // The table replaces the stored day
+            assertEquals(WeatherInserter.OUTCOME_STORED, insert(inserter, 0, 80));
+            assertTrue(inserter.getRowId() != firstId);
+
+            // A row the table rejects fails on its own, without ending the others
+            ContentValues values = TestUtilities.createWeatherValues(mLocationId);
+            values.remove(WeatherEntry.COLUMN_SHORT_DESC);
+            assertEquals(WeatherInserter.OUTCOME_FAILED, inserter.insert(values));
+            assertEquals(-1, inserter.getRowId());
+
+            // Rows with columns of their own take the slow path, with the same outcomes
+            values = TestUtilities.createWeatherValues(mLocationId);
+            values.put(WeatherEntry._ID, 1000);
+            values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS);
+            assertEquals(WeatherInserter.OUTCOME_STORED, inserter.insert(values));
+            assertEquals(1000, inserter.getRowId());
+
+            // Rows bound from primitives too
+            assertEquals(WeatherInserter.OUTCOME_STORED, insertPrimitives(inserter, 3, 75));
+            assertTrue(inserter.getRowId() != -1);
+            assertEquals(WeatherInserter.OUTCOME_FAILED, inserter.insert(mLocationId,
+                    TestUtilities.TEST_DATE, 1, 2, 3, 4, 75, 65, null, 321));
+
+            assertEquals(5, inserter.getCount(WeatherInserter.OUTCOME_STORED));
+            assertEquals(2, inserter.getCount(WeatherInserter.OUTCOME_FAILED));
+        } finally {
+            inserter.close();
+        }
+
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP},
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))},
+                null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(80.0, cursor.getDouble(0), 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Rows per second through SQLiteDatabase.insert, as bulkInsert used to store them,
+        through the compiled statement bound from ContentValues and from primitives, through
+        the provider's bulkInsert, and through writeDays as the sync stores them, for a
+        forecast, a few years of one and a big import.  The provider is handed at most
+        BULK_INSERT_ROWS rows per call, as the values of a whole import wouldn't fit in the heap.
+        The numbers go to the log, run with: adb logcat -s TestWeatherInserter
+     */
+    public void testThroughput() throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        long providerLocationId = ContentUris.parseId(resolver.insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        try {
+            for (int rows : new int[]{14, 1000, 100000}) {
+                double insertRate = measure(rows, MODE_INSERT);
+                double compiledRate = measure(rows, MODE_COMPILED);
+                double primitivesRate = measure(rows, MODE_PRIMITIVES);
+                double providerRate = measureProvider(providerLocationId, rows);
+                double writeDaysRate = measureWriteDays(providerLocationId, rows);
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "%d rows: %.0f rows/s with insert, %.0f rows/s compiled, "
+                                + "%.0f rows/s from primitives, %.0f rows/s through bulkInsert, "
+                                + "%.0f rows/s through writeDays",
+                        rows, insertRate, compiledRate, primitivesRate, providerRate,
+                        writeDaysRate));
+            }
+        } finally {
+            resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+            resolver.delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        }
+    }
+
+    private double measure(int rows, int mode) {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        long start = System.nanoTime();
+        mDb.beginTransaction();
+        try {
+            if (mode == MODE_INSERT) {
+                for (int i = 0; i < rows; i++) {
+                    ContentValues values = createWeatherValues(mLocationId, i, 75);
+                    values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                            values.getAsLong(WeatherEntry.COLUMN_DATE)));
+                    assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+                }
+            } else {
+                WeatherInserter inserter = new WeatherInserter(mDb);
+                try {
+                    for (int i = 0; i < rows; i++) {
+                        assertEquals(WeatherInserter.OUTCOME_STORED, mode == MODE_COMPILED
+                                ? insert(inserter, i, 75) : insertPrimitives(inserter, i, 75));
+                    }
+                } finally {
+                    inserter.close();
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long nanos = System.nanoTime() - start;
+        return rows * 1e9 / nanos;
+    }
+
+    private double measureProvider(long locationId, int rows) {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        long start = System.nanoTime();
+        for (int first = 0; first < rows; first += BULK_INSERT_ROWS) {
+            ContentValues[] values = new ContentValues[Math.min(BULK_INSERT_ROWS, rows - first)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = createWeatherValues(locationId, first + i, 75);
+            }
+            assertEquals(values.length, resolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+        }
+        long nanos = System.nanoTime() - start;
+        return rows * 1e9 / nanos;
+    }
+
+    private double measureWriteDays(long locationId, int rows) throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        ForecastBatch batch = new ForecastBatch(BULK_INSERT_ROWS);
+        ForecastParser.Day day = new ForecastParser.Day();
+        day.humidity = 1;
+        day.pressure = 1.3;
+        day.windSpeed = 5.5;
+        day.windDirection = 1.1;
+        day.high = 75;
+        day.low = 65;
+        day.description = "Asteroids";
+        day.weatherId = 321;
+        int[] allRows = new int[BULK_INSERT_ROWS];
+        for (int i = 0; i < allRows.length; i++) {
+            allRows[i] = i;
+        }
+        long start = System.nanoTime();
+        for (int first = 0; first < rows; first += BULK_INSERT_ROWS) {
+            batch.clear();
+            int count = Math.min(BULK_INSERT_ROWS, rows - first);
+            for (int i = 0; i < count; i++) {
+                batch.add(TestUtilities.TEST_DATE + (first + i) * DAY_IN_MILLIS, day);
+            }
+            Bundle result = WeatherEntry.writeDays(resolver, locationId, batch, allRows, count, -1);
+            assertEquals(count, result.getInt(WeatherContract.EXTRA_ROWS_STORED));
+        }
+        long nanos = System.nanoTime() - start;
+        return rows * 1e9 / nanos;
+    }
+}
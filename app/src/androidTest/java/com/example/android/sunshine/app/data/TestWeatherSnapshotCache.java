@@ -0,0 +1,184 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TestWeatherSnapshotCache extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long TODAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final String DATE_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // The columns of the forecast list, of the widget and of the detail view
+    private static final String[] LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final String[] WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private static final List<String> TEXT_COLUMNS = Arrays.asList(
+            WeatherEntry.COLUMN_SHORT_DESC,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME);
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationId));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /*
+        After a sync the forecast list, the widgets and the notification read the same days,
+        only the first of them reads the database.
+     */
+    public void testReadThrough() {
+        String location = TestUtilities.TEST_LOCATION;
+        int hits = WeatherSnapshotCache.getHitCount();
+        int misses = WeatherSnapshotCache.getMissCount();
+
+        assertMatchesDatabase(WeatherEntry.buildWeatherLocationWithStartDate(location, TODAY),
+                LIST_COLUMNS, DATE_ORDER);
+        assertMatchesDatabase(WeatherEntry.buildWeatherLocationWithStartDate(location, TODAY),
+                WIDGET_COLUMNS, DATE_ORDER);
+        assertMatchesDatabase(WeatherEntry.buildWeatherLocationWithDate(location, TODAY),
+                WIDGET_COLUMNS, null);
+        assertMatchesDatabase(WeatherEntry.buildWeatherLocationWithDate(location,
+                TODAY + 3 * DAY_IN_MILLIS), DETAIL_COLUMNS, null);
+        assertMatchesDatabase(WeatherEntry.buildWeatherLocationIdWithStartDate(mLocationId,
+                TODAY + DAY_IN_MILLIS), LIST_COLUMNS, DATE_ORDER);
+
+        assertEquals("Error: The days weren't read once", 1,
+                WeatherSnapshotCache.getMissCount() - misses);
+        assertEquals("Error: The days weren't answered from memory", 4,
+                WeatherSnapshotCache.getHitCount() - hits);
+    }
+
+    public void testInvalidatedByWrites() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, TODAY);
+        assertEquals(75.0, queryMaxTemp(uri), 0);
+
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        assertEquals(1, mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(TODAY)}));
+        int misses = WeatherSnapshotCache.getMissCount();
+        assertEquals("Error: A day was served after it changed", 80.0, queryMaxTemp(uri), 0);
+        assertEquals(1, WeatherSnapshotCache.getMissCount() - misses);
+
+        // The hourly forecast doesn't take the days with it
+        mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI,
+                TestProvider.createBulkInsertHourlyValues(mLocationId));
+        int hits = WeatherSnapshotCache.getHitCount();
+        assertEquals(80.0, queryMaxTemp(uri), 0);
+        assertEquals(1, WeatherSnapshotCache.getHitCount() - hits);
+    }
+
+    /*
+        Queries the snapshots can't answer go to the database, and aren't counted.
+     */
+    public void testUncachedQueries() {
+        int hits = WeatherSnapshotCache.getHitCount();
+        int misses = WeatherSnapshotCache.getMissCount();
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TODAY);
+        assertMatchesDatabase(uri, null, DATE_ORDER);
+        assertMatchesDatabase(uri, LIST_COLUMNS, WeatherEntry.COLUMN_DATE + " DESC");
+        assertMatchesDatabase(uri, new String[]{WeatherEntry._ID}, DATE_ORDER);
+        assertEquals(hits, WeatherSnapshotCache.getHitCount());
+        assertEquals(misses, WeatherSnapshotCache.getMissCount());
+    }
+
+    private double queryMaxTemp(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertMatchesDatabase(Uri uri, String[] projection, String sortOrder) {
+        Cursor actual = mContext.getContentResolver().query(uri, projection, null, null, sortOrder);
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = helper.getReadableDatabase();
+        WeatherProvider.Query query = WeatherProvider.buildQuery(
+                db, uri, projection, null, null, sortOrder);
+        Cursor expected = db.rawQuery(query.sql, query.selectionArgs);
+        try {
+            String error = "Error: " + uri + " " + Arrays.toString(projection);
+            assertTrue(error, Arrays.equals(expected.getColumnNames(), actual.getColumnNames()));
+            assertEquals(error, expected.getCount(), actual.getCount());
+            while (expected.moveToNext()) {
+                assertTrue(actual.moveToNext());
+                for (int i = 0; i < expected.getColumnCount(); i++) {
+                    // The database and Java print doubles with different precisions
+                    if (TEXT_COLUMNS.contains(expected.getColumnName(i))) {
+                        assertEquals(error, expected.getString(i), actual.getString(i));
+                    } else {
+                        assertEquals(error, expected.getDouble(i), actual.getDouble(i), 0);
+                    }
+                }
+            }
+        } finally {
+            expected.close();
+            actual.close();
+            helper.close();
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process stand-in for the OpenWeatherMap daily and 3 hour forecast APIs, listening on the loopback
+ * interface.  It serves recorded payloads for the locations they were registered for and
+ * synthetic forecasts for everything else, and can be told to be slow, to fail, to cut
+ * responses short or to bloat them, so the sync can be exercised and timed without a network.
+ *
+ * Like OWM it honours {@code Accept-Encoding: gzip}, or deflate if asked to, and answers a matching
+ * {@code If-None-Match} with 304 Not Modified.
+ */
+public class FakeWeatherServer implements WeatherSource {
+    public static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+    public static final String HOURLY_FORECAST_PATH = "/data/2.5/forecast";
+    // The 3 hour forecast covers 5 days
+    public static final int HOURLY_STEPS = 40;
+    public static final String API_KEY = "fake";
+
+    private static final String CRLF = "\r\n";
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Map<String, String> mRecorded = new HashMap<>();
+
+    private volatile long mLatencyMillis;
+    private volatile int mDays;
+    private volatile int mPaddingBytes;
+    private volatile boolean mTruncate;
+    private volatile boolean mDeflate;
+    private volatile boolean mRawDeflate;
+    private volatile String mCityNotFound;
+    private final AtomicInteger mFailuresRemaining = new AtomicInteger();
+    private volatile int mFailureStatus = HttpURLConnection.HTTP_UNAVAILABLE;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    public FakeWeatherServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    @Override
+    public HttpURLConnection openForecast(String locationQuery, int numDays) throws IOException {
+        return getSource().openForecast(locationQuery, numDays);
+    }
+
+    @Override
+    public HttpURLConnection openHourlyForecast(String locationQuery) throws IOException {
+        return getSource().openHourlyForecast(locationQuery);
+    }
+
+    private OpenWeatherMapSource getSource() {
+        String base = "http://127.0.0.1:" + getPort();
+        return new OpenWeatherMapSource(base + FORECAST_PATH + "?",
+                base + HOURLY_FORECAST_PATH + "?", API_KEY);
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // nothing left to clean up
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Serves {@code json} verbatim for {@code location} instead of a synthetic forecast.
+     */
+    public synchronized void setRecordedPayload(String location, String json) {
+        mRecorded.put(location, json);
+    }
+
+    /**
+     * Delays every response by {@code millis} before the status line is sent.
+     */
+    public void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    /**
+     * Makes synthetic forecasts {@code days} long whatever was asked for, 0 to honour the
+     * request.
+     */
+    public void setDays(int days) {
+        mDays = days;
+    }
+
+    /**
+     * Adds an ignored field of {@code bytes} characters to every synthetic day.
+     */
+    public void setPaddingBytes(int bytes) {
+        mPaddingBytes = bytes;
+    }
+
+    /**
+     * Closes the connection half way through every body.
+     */
+    public void setTruncate(boolean truncate) {
+        mTruncate = truncate;
+    }
+
+    /**
+     * Compresses with deflate rather than gzip, when the request accepts it.  With {@code raw}
+     * the deflate data is sent without its zlib wrapper, as some servers do.
+     */
+    public void setDeflate(boolean raw) {
+        mRawDeflate = raw;
+        mDeflate = true;
+    }
+
+    /**
+     * Answers requests for {@code location} the way OWM answers an unknown city.
+     */
+    public void setCityNotFound(String location) {
+        mCityNotFound = location;
+    }
+
+    /**
+     * Answers the next {@code count} requests with the bodyless HTTP {@code status}.
+     */
+    public void failNext(int count, int status) {
+        mFailureStatus = status;
+        mFailuresRemaining.set(count);
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return the number of body bytes written to the wire, after compression.
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /**
+     * Builds a well formed OWM daily forecast.  The same arguments always give the same
+     * payload.
+     */
+    public static String syntheticForecast(String location, int days, int paddingBytes) {
+        Random random = new Random(location.hashCode());
+        StringBuilder padding = new StringBuilder(paddingBytes);
+        for (int i = 0; i < paddingBytes; i++) {
+            padding.append('x');
+        }
+
+        StringBuilder json = new StringBuilder(512 + days * (256 + paddingBytes));
+        json.append("{\"city\":{\"id\":").append(Math.abs(location.hashCode()))
+                .append(",\"name\":\"Fake ").append(location)
+                .append("\",\"coord\":{\"lon\":").append(random.nextInt(360) - 180)
+                .append(".25,\"lat\":").append(random.nextInt(180) - 90)
+                .append(".5},\"country\":\"XX\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            double low = random.nextInt(300) / 10.0 - 5;
+            double high = low + random.nextInt(100) / 10.0;
+            int weatherId = 200 + random.nextInt(600);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Fake\","
+                            + "\"description\":\"synthetic weather\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d",
+                    1420070400L + i * 86400L, high, low, high, low, high, low,
+                    990 + random.nextInt(4000) / 100.0, random.nextInt(100),
+                    weatherId, random.nextInt(2000) / 100.0, random.nextInt(360),
+                    random.nextInt(100)));
+            if (paddingBytes > 0) {
+                json.append(",\"padding\":\"").append(padding).append('"');
+            }
+            json.append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Builds a well formed OWM 3 hour forecast of {@code steps} steps starting at
+     * {@code startSeconds}.  The same arguments always give the same payload.
+     */
+    public static String syntheticHourlyForecast(String location, long startSeconds, int steps) {
+        Random random = new Random(location.hashCode());
+        StringBuilder json = new StringBuilder(512 + steps * 384);
+        json.append("{\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(steps)
+                .append(",\"list\":[");
+        for (int i = 0; i < steps; i++) {
+            double temp = random.nextInt(300) / 10.0 - 5;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"main\":{\"temp\":%.2f,\"temp_min\":%.2f,"
+                            + "\"temp_max\":%.2f,\"pressure\":%.2f,\"humidity\":%d},"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Fake\","
+                            + "\"description\":\"synthetic weather\",\"icon\":\"01d\"}],"
+                            + "\"clouds\":{\"all\":%d},\"wind\":{\"speed\":%.2f,\"deg\":%d}",
+                    startSeconds + i * 3 * 3600L, temp, temp, temp,
+                    990 + random.nextInt(4000) / 100.0, random.nextInt(100),
+                    200 + random.nextInt(600), random.nextInt(100),
+                    random.nextInt(2000) / 100.0, random.nextInt(360)));
+            if (i % 4 == 0) {
+                json.append(String.format(Locale.US, ",\"rain\":{\"3h\":%.2f}",
+                        random.nextInt(500) / 100.0));
+            }
+            json.append('}');
+        }
+        json.append("],\"city\":{\"id\":").append(Math.abs(location.hashCode()))
+                .append(",\"name\":\"Fake ").append(location)
+                .append("\",\"coord\":{\"lat\":").append(random.nextInt(180) - 90)
+                .append(".5,\"lon\":").append(random.nextInt(360) - 180)
+                .append(".25},\"country\":\"XX\"}}");
+        return json.toString();
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // closed by shutdown()
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            mRequestCount.incrementAndGet();
+
+            if (mLatencyMillis > 0) {
+                Thread.sleep(mLatencyMillis);
+            }
+            respond(socket.getOutputStream(), requestLine, headers);
+        } catch (IOException | InterruptedException e) {
+            // the client went away, or we're shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private void respond(OutputStream out, String requestLine, Map<String, String> headers)
+            throws IOException {
+        String[] parts = requestLine.split(" ");
+        String target = parts.length > 1 ? parts[1] : "/";
+        int queryStart = target.indexOf('?');
+        String path = queryStart < 0 ? target : target.substring(0, queryStart);
+        Map<String, String> query =
+                parseQuery(queryStart < 0 ? "" : target.substring(queryStart + 1));
+
+        if (mFailuresRemaining.getAndDecrement() > 0) {
+            writeHead(out, mFailureStatus, "Failure", null, null, 0);
+            return;
+        }
+        boolean hourly = HOURLY_FORECAST_PATH.equals(path);
+        if (!(hourly || FORECAST_PATH.equals(path))
+                || !API_KEY.equals(query.get(OpenWeatherMapSource.APPID_PARAM))) {
+            writeHead(out, HttpURLConnection.HTTP_NOT_FOUND, "Not Found", null, null, 0);
+            return;
+        }
+
+        String location = query.get(OpenWeatherMapSource.QUERY_PARAM);
+        if (location != null && location.equals(mCityNotFound)) {
+            writeBody(out, HttpURLConnection.HTTP_NOT_FOUND, "Not Found", headers,
+                    "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+            return;
+        }
+
+        String json;
+        synchronized (this) {
+            // Recorded payloads are daily forecasts
+            json = hourly ? null : mRecorded.get(location);
+        }
+        if (json == null && hourly) {
+            // Steps start at the last 3 hour boundary, like OWM's
+            long now = System.currentTimeMillis() / 1000;
+            json = syntheticHourlyForecast(location == null ? "" : location,
+                    now - now % (3 * 3600), HOURLY_STEPS);
+        } else if (json == null) {
+            int days = mDays;
+            if (days <= 0) {
+                try {
+                    days = Integer.parseInt(query.get(OpenWeatherMapSource.DAYS_PARAM));
+                } catch (NumberFormatException e) {
+                    days = 7;
+                }
+            }
+            json = syntheticForecast(location == null ? "" : location, days, mPaddingBytes);
+        }
+        writeBody(out, HttpURLConnection.HTTP_OK, "OK", headers, json);
+    }
+
+    private void writeBody(OutputStream out, int status, String reason,
+                           Map<String, String> requestHeaders, String json) throws IOException {
+        String eTag = "\"" + Integer.toHexString(json.hashCode()) + "\"";
+        if (status == HttpURLConnection.HTTP_OK
+                && eTag.equals(requestHeaders.get("if-none-match"))) {
+            writeHead(out, HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified", eTag, null, 0);
+            return;
+        }
+
+        byte[] body = json.getBytes("UTF-8");
+        String encoding = null;
+        String acceptEncoding = requestHeaders.get("accept-encoding");
+        if (mDeflate && acceptEncoding != null && acceptEncoding.contains("deflate")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, mRawDeflate);
+            DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, deflater);
+            deflate.write(body);
+            deflate.close();
+            deflater.end();
+            body = compressed.toByteArray();
+            encoding = "deflate";
+        } else if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(body);
+            gzip.close();
+            body = compressed.toByteArray();
+            encoding = "gzip";
+        }
+
+        writeHead(out, status, reason, eTag, encoding, body.length);
+        int length = mTruncate ? body.length / 2 : body.length;
+        out.write(body, 0, length);
+        out.flush();
+        mBytesSent.addAndGet(length);
+    }
+
+    private static void writeHead(OutputStream out, int status, String reason, String eTag,
+                                  String encoding, int contentLength) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append(CRLF);
+        head.append("Content-Type: application/json; charset=utf-8").append(CRLF);
+        head.append("Content-Length: ").append(contentLength).append(CRLF);
+        head.append("Connection: close").append(CRLF);
+        if (eTag != null) {
+            head.append("ETag: ").append(eTag).append(CRLF);
+        }
+        if (encoding != null) {
+            head.append("Content-Encoding: ").append(encoding).append(CRLF);
+        }
+        head.append(CRLF);
+        out.write(head.toString().getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    // Header lines are ASCII, so reading them a byte at a time is good enough
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.PeriodicSync;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestAllLocationsSync extends AndroidTestCase {
+    private static final String[] OTHER_LOCATIONS = {"11111", "22222", "33333"};
+    private static final int DAYS = 14;
+
+    private FakeWeatherServer mServer;
+    private List<String> mLocations;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mServer = new FakeWeatherServer();
+        SunshineSyncAdapter.setWeatherSource(mServer);
+
+        mLocations = new ArrayList<>();
+        mLocations.add(Utility.getPreferredLocation(mContext));
+        for (String location : OTHER_LOCATIONS) {
+            mLocations.add(location);
+        }
+        for (String location : mLocations) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, location);
+            values.put(LocationEntry.COLUMN_CITY_NAME, "Fake " + location);
+            values.put(LocationEntry.COLUMN_COORD_LAT, 0.5);
+            values.put(LocationEntry.COLUMN_COORD_LONG, 0.25);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setWeatherSource(new OpenWeatherMapSource());
+        mServer.shutdown();
+        deleteAllRecords();
+        SyncScheduler.reschedule(mContext, true);
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /*
+        A sync with the all-locations extra fetches and stores the forecast of every stored
+        location, not just the preferred one.
+     */
+    public void testSyncsEveryLocation() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+        SyncResult syncResult = new SyncResult();
+        new SunshineSyncAdapter(mContext, false).onPerformSync(new Account("test", "test"),
+                extras, mContext.getString(R.string.content_authority), null, syncResult);
+
+        for (String location : mLocations) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(location), null, null, null, null);
+            assertEquals("Error: The forecast of " + location + " wasn't stored",
+                    DAYS, cursor.getCount());
+            cursor.close();
+        }
+        assertEquals(DAYS * mLocations.size(), syncResult.stats.numInserts);
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals("Error: Each location wasn't fetched once, daily and hourly",
+                2 * mLocations.size(), mServer.getRequestCount());
+    }
+
+    /*
+        The periodic sync covers every location once there is more than one, and goes back to
+        the preferred one when the others are gone.
+     */
+    public void testPeriodicSync() {
+        assertTrue(SyncScheduler.reschedule(mContext, true).allLocations);
+        assertTrue("Error: The periodic sync doesn't cover every location",
+                isPeriodicSyncOfAllLocations());
+
+        for (String location : OTHER_LOCATIONS) {
+            mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{location});
+        }
+        assertFalse(SyncScheduler.reschedule(mContext, false).allLocations);
+        assertFalse("Error: The periodic sync still covers every location",
+                isPeriodicSyncOfAllLocations());
+    }
+
+    private boolean isPeriodicSyncOfAllLocations() {
+        List<PeriodicSync> syncs = ContentResolver.getPeriodicSyncs(
+                SunshineSyncAdapter.getSyncAccount(mContext),
+                mContext.getString(R.string.content_authority));
+        assertEquals("Error: Expected a single periodic sync", 1, syncs.size());
+        return syncs.get(0).extras.getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestCircuitBreaker extends AndroidTestCase {
+    private static final String TEST_HOST = "breaker.test";
+    private static final long NOW = 1420070400000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearPreferences();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearPreferences();
+        super.tearDown();
+    }
+
+    private void clearPreferences() {
+        mContext.getSharedPreferences(CircuitBreaker.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+    }
+
+    /*
+        Closed until the threshold of consecutive failures, then open, then half open with a
+        single trial request, which closes it again if it succeeds.
+     */
+    public void testTransitions() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, TEST_HOST);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest(NOW));
+            breaker.recordFailure(NOW);
+        }
+        assertTrue("Error: The breaker opened before the threshold", breaker.allowRequest(NOW));
+        breaker.recordSuccess();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.recordFailure(NOW);
+        }
+        assertTrue("Error: A success didn't reset the failures", breaker.allowRequest(NOW));
+
+        breaker.recordFailure(NOW);
+        assertFalse("Error: The breaker didn't open", breaker.allowRequest(NOW));
+        long retryAfter = breaker.getRetryAfterMillis(NOW);
+        assertTrue(retryAfter >= CircuitBreaker.MIN_OPEN_MILLIS);
+        assertFalse(breaker.allowRequest(NOW + retryAfter - 1));
+
+        long halfOpen = NOW + retryAfter;
+        assertTrue("Error: The trial request wasn't allowed", breaker.allowRequest(halfOpen));
+        assertFalse("Error: A second trial request was allowed", breaker.allowRequest(halfOpen));
+        breaker.recordSuccess();
+        assertTrue("Error: The breaker didn't close", breaker.allowRequest(halfOpen));
+        assertTrue(breaker.allowRequest(halfOpen));
+        assertEquals(0, breaker.getRetryAfterMillis(halfOpen));
+    }
+
+    /*
+        A cancelled trial gives the trial back and leaves the breaker half open.
+     */
+    public void testCancelledTrial() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, TEST_HOST);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(NOW);
+        }
+        long halfOpen = NOW + breaker.getRetryAfterMillis(NOW);
+        assertTrue(breaker.allowRequest(halfOpen));
+        breaker.recordCancelled();
+        assertTrue("Error: The cancelled trial wasn't given back", breaker.allowRequest(halfOpen));
+        assertFalse("Error: A cancelled trial closed the breaker", breaker.allowRequest(halfOpen));
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN,
+                CircuitBreaker.getState(mContext, TEST_HOST));
+    }
+
+    /*
+        Every failed trial doubles the open window, up to the maximum, give or take the jitter
+        of a fifth.
+     */
+    public void testOpenWindow() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, TEST_HOST);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(NOW);
+        }
+        long now = NOW;
+        long expected = CircuitBreaker.MIN_OPEN_MILLIS;
+        for (int i = 0; i < 10; i++) {
+            long retryAfter = breaker.getRetryAfterMillis(now);
+            assertTrue("Error: Window " + i + " was " + retryAfter + "ms, expected "
+                    + expected + "ms", retryAfter >= expected && retryAfter <= expected * 6 / 5);
+
+            now += retryAfter;
+            assertTrue(breaker.allowRequest(now));
+            breaker.recordFailure(now);
+            expected = Math.min(CircuitBreaker.MAX_OPEN_MILLIS, expected * 2);
+        }
+        assertEquals("Error: The window wasn't clamped",
+                CircuitBreaker.MAX_OPEN_MILLIS, expected);
+
+        // The state outlives the instance
+        CircuitBreaker restored = new CircuitBreaker(mContext, TEST_HOST);
+        assertEquals(breaker.getRetryAfterMillis(now), restored.getRetryAfterMillis(now));
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.core.ForecastParser;
+import com.example.android.sunshine.core.HourlyForecastParser;
+
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+public class TestFakeWeatherServer extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+
+    private FakeWeatherServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeWeatherServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    static class CountingHandler implements ForecastParser.Handler {
+        String cityName;
+        int days;
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+        }
+
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            days++;
+        }
+    }
+
+    static class CountingHourlyHandler implements HourlyForecastParser.Handler {
+        String cityName;
+        int steps;
+        long lastTime;
+        boolean ordered = true;
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+        }
+
+        @Override
+        public void onStep(HourlyForecastParser.Step step) {
+            ordered &= step.time > lastTime;
+            lastTime = step.time;
+            steps++;
+        }
+    }
+
+    /*
+        The synthetic forecast has to go through the same decoding and parsing as a real one.
+     */
+    public void testSyntheticForecast() throws Throwable {
+        mServer.setPaddingBytes(64);
+        HttpURLConnection urlConnection = mServer.openForecast(TEST_LOCATION, 14);
+        ResponseDecoder.requestCompression(urlConnection);
+        urlConnection.connect();
+        assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+
+        ResponseDecoder decoder = new ResponseDecoder();
+        Reader reader = decoder.open(urlConnection);
+        CountingHandler handler = new CountingHandler();
+        int messageCode;
+        try {
+            messageCode = new ForecastParser().parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(HttpURLConnection.HTTP_OK, messageCode);
+        assertEquals("Fake " + TEST_LOCATION, handler.cityName);
+        assertEquals("Error: The server didn't honour the requested day count", 14, handler.days);
+        assertTrue("Error: The response wasn't compressed",
+                decoder.getWireBytes() < decoder.getDecodedBytes());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    /*
+        Deflate bodies decode whether or not the server wraps them in zlib.
+     */
+    public void testDeflate() throws Throwable {
+        for (boolean raw : new boolean[]{false, true}) {
+            mServer.setDeflate(raw);
+            HttpURLConnection urlConnection = mServer.openForecast(TEST_LOCATION, 14);
+            ResponseDecoder.requestCompression(urlConnection);
+            assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+            assertEquals("deflate", urlConnection.getContentEncoding());
+
+            ResponseDecoder decoder = new ResponseDecoder();
+            Reader reader = decoder.open(urlConnection);
+            CountingHandler handler = new CountingHandler();
+            try {
+                assertEquals(HttpURLConnection.HTTP_OK,
+                        new ForecastParser().parse(reader, handler));
+            } finally {
+                reader.close();
+            }
+            assertEquals("Error: The " + (raw ? "raw" : "zlib") + " deflate body didn't decode",
+                    14, handler.days);
+            assertTrue(decoder.getWireBytes() < decoder.getDecodedBytes());
+        }
+    }
+
+    public void testSyntheticHourlyForecast() throws Throwable {
+        HttpURLConnection urlConnection = mServer.openHourlyForecast(TEST_LOCATION);
+        ResponseDecoder.requestCompression(urlConnection);
+        assertEquals(HttpURLConnection.HTTP_OK, urlConnection.getResponseCode());
+
+        Reader reader = new ResponseDecoder().open(urlConnection);
+        CountingHourlyHandler handler = new CountingHourlyHandler();
+        int messageCode;
+        try {
+            messageCode = new HourlyForecastParser().parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(HttpURLConnection.HTTP_OK, messageCode);
+        assertEquals("Fake " + TEST_LOCATION, handler.cityName);
+        assertEquals(FakeWeatherServer.HOURLY_STEPS, handler.steps);
+        assertTrue("Error: The steps weren't in time order", handler.ordered);
+    }
+
+    public void testRecordedPayloadAndRevalidation() throws Throwable {
+        String recorded = FakeWeatherServer.syntheticForecast("recorded", 3, 0);
+        mServer.setRecordedPayload(TEST_LOCATION, recorded);
+
+        HttpURLConnection first = mServer.openForecast(TEST_LOCATION, 14);
+        first.connect();
+        assertEquals(HttpURLConnection.HTTP_OK, first.getResponseCode());
+        ForecastValidators validators = ForecastValidators.fromResponse(first);
+        Reader reader = new ResponseDecoder().open(first);
+        CountingHandler handler = new CountingHandler();
+        try {
+            new ForecastParser().parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+        assertEquals("Error: The recorded payload wasn't served", 3, handler.days);
+        assertFalse(validators.isEmpty());
+
+        HttpURLConnection second = mServer.openForecast(TEST_LOCATION, 14);
+        validators.applyTo(second);
+        second.connect();
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, second.getResponseCode());
+        second.disconnect();
+    }
+
+    public void testFailures() throws Throwable {
+        mServer.failNext(1, HttpURLConnection.HTTP_UNAVAILABLE);
+
+        HttpURLConnection failed = mServer.openForecast(TEST_LOCATION, 14);
+        assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, failed.getResponseCode());
+        failed.disconnect();
+
+        HttpURLConnection recovered = mServer.openForecast(TEST_LOCATION, 14);
+        assertEquals(HttpURLConnection.HTTP_OK, recovered.getResponseCode());
+        recovered.disconnect();
+
+        assertEquals(2, mServer.getRequestCount());
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastParser;
+
+public class TestForecastFingerprint extends AndroidTestCase {
+    private static final long TEST_DATE = WeatherContract.normalizeDate(1419033600000L);
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ForecastParser.Day createDay(int index) {
+        ForecastParser.Day day = new ForecastParser.Day();
+        day.pressure = 1010.25 + index;
+        day.humidity = 40 + index;
+        day.windSpeed = 5.5 + index;
+        day.windDirection = 180.75;
+        day.high = 21.3 + index;
+        day.low = 11.7 - index;
+        day.description = "Light rain";
+        day.weatherId = 500 + index;
+        return day;
+    }
+
+    private static long fingerprint(ForecastParser.Day day) {
+        ForecastBatch batch = new ForecastBatch();
+        return ForecastFingerprint.of(batch, batch.add(TEST_DATE, day));
+    }
+
+    /*
+        The same day gives the same fingerprint, whether it comes from a batch or from the
+        stored columns.
+     */
+    public void testSameDay() {
+        ForecastParser.Day day = createDay(0);
+        long fingerprint = fingerprint(day);
+        assertEquals(fingerprint, fingerprint(createDay(0)));
+        assertEquals(fingerprint, ForecastFingerprint.of(day.pressure, day.humidity,
+                day.windSpeed, day.windDirection, day.high, day.low, day.description,
+                day.weatherId));
+        // The date isn't part of it, the stored rows are looked up by date
+        ForecastBatch batch = new ForecastBatch();
+        assertEquals(fingerprint,
+                ForecastFingerprint.of(batch, batch.add(TEST_DATE + DAY_IN_MILLIS, day)));
+    }
+
+    /*
+        A change to any one of the stored values gives a different fingerprint.
+     */
+    public void testEachField() {
+        long fingerprint = fingerprint(createDay(0));
+
+        ForecastParser.Day day = createDay(0);
+        day.pressure += 0.01;
+        assertFalse("Error: The pressure isn't fingerprinted", fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.humidity++;
+        assertFalse("Error: The humidity isn't fingerprinted", fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.windSpeed += 0.01;
+        assertFalse("Error: The wind speed isn't fingerprinted",
+                fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.windDirection += 1;
+        assertFalse("Error: The wind direction isn't fingerprinted",
+                fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.high += 0.1;
+        assertFalse("Error: The high isn't fingerprinted", fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.low -= 0.1;
+        assertFalse("Error: The low isn't fingerprinted", fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.description = "Light rein";
+        assertFalse("Error: The description isn't fingerprinted",
+                fingerprint == fingerprint(day));
+        day = createDay(0);
+        day.weatherId++;
+        assertFalse("Error: The weather id isn't fingerprinted",
+                fingerprint == fingerprint(day));
+
+        // The high and the low swapped
+        day = createDay(0);
+        day.high = createDay(0).low;
+        day.low = createDay(0).high;
+        assertFalse("Error: The order of the values isn't fingerprinted",
+                fingerprint == fingerprint(day));
+    }
+
+    public void testStored() {
+        ForecastFingerprint.Stored stored = new ForecastFingerprint.Stored();
+        assertFalse(stored.matches(TEST_DATE, 1));
+        assertFalse(stored.hasDatesUpTo(TEST_DATE));
+
+        // More days than the arrays start with
+        for (int i = 0; i < 40; i++) {
+            stored.put(TEST_DATE + i * DAY_IN_MILLIS, i);
+        }
+        for (int i = 0; i < 40; i++) {
+            assertTrue(stored.matches(TEST_DATE + i * DAY_IN_MILLIS, i));
+            assertFalse(stored.matches(TEST_DATE + i * DAY_IN_MILLIS, i + 1));
+        }
+        stored.put(TEST_DATE, 100);
+        assertTrue("Error: A stored fingerprint wasn't replaced", stored.matches(TEST_DATE, 100));
+        assertFalse(stored.matches(TEST_DATE, 0));
+
+        assertTrue(stored.hasDatesUpTo(TEST_DATE));
+        assertFalse(stored.hasDatesUpTo(TEST_DATE - 1));
+    }
+
+    /*
+        The rows read back from the database fingerprint exactly like the days they were
+        written from, so unchanged days match and changed ones don't.
+     */
+    public void testLoadStored() throws Exception {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "99705");
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                location);
+        long locationId = ContentUris.parseId(locationUri);
+
+        int days = 7;
+        ForecastBatch batch = new ForecastBatch();
+        int[] rows = new int[days];
+        for (int i = 0; i < days; i++) {
+            rows[i] = batch.add(TEST_DATE + i * DAY_IN_MILLIS, createDay(i));
+        }
+        WeatherEntry.writeDays(mContext.getContentResolver(), locationId, batch, rows, days,
+                -1);
+
+        ForecastFingerprint.Stored stored =
+                ForecastFingerprint.loadStored(mContext.getContentResolver(), locationId);
+        for (int i = 0; i < days; i++) {
+            assertTrue("Error: Stored day " + i + " doesn't match the day it was written from",
+                    stored.matches(batch.getDate(i), ForecastFingerprint.of(batch, i)));
+        }
+        ForecastParser.Day changed = createDay(0);
+        changed.high += 0.5;
+        assertFalse("Error: A changed day matched the stored one",
+                stored.matches(TEST_DATE, fingerprint(changed)));
+        assertFalse(stored.matches(TEST_DATE + days * DAY_IN_MILLIS,
+                ForecastFingerprint.of(batch, 0)));
+
+        // Another location has nothing stored
+        ForecastFingerprint.Stored none =
+                ForecastFingerprint.loadStored(mContext.getContentResolver(), locationId + 1);
+        assertFalse(none.hasDatesUpTo(Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs syncs of the preferred location against a {@link FakeWeatherServer}.
+ */
+public class TestLocationSync extends AndroidTestCase {
+    private static final int DAYS = 14;
+    // Where FakeWeatherServer listens
+    private static final String HOST = "127.0.0.1";
+    private static final String ID_COLUMN = WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID;
+
+    private FakeWeatherServer mServer;
+    private String mLocation;
+    private final SyncMetrics mMetrics = SyncMetrics.getInstance();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        CircuitBreaker.resetAll(mContext);
+        mLocation = Utility.getPreferredLocation(mContext);
+        ForecastValidators.clear(mContext, mLocation);
+        ForecastValidators.clear(mContext, WeatherContract.PATH_HOURLY + ":" + mLocation);
+        mServer = new FakeWeatherServer();
+        SunshineSyncAdapter.setWeatherSource(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setWeatherSource(new OpenWeatherMapSource());
+        SunshineSyncAdapter.setHttpClient(new SyncHttpClient());
+        mServer.shutdown();
+        CircuitBreaker.resetAll(mContext);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private SyncResult sync() {
+        SyncResult syncResult = new SyncResult();
+        new SunshineSyncAdapter(mContext, false).onPerformSync(new Account("test", "test"),
+                new Bundle(), mContext.getString(R.string.content_authority), null, syncResult);
+        return syncResult;
+    }
+
+    /**
+     * @return the ids of the stored days of the location, in date order.
+     */
+    private List<Long> queryDays() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(mLocation), new String[]{ID_COLUMN},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        List<Long> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private long countOutcome(String outcome) {
+        return mMetrics.getCount(SyncMetrics.COUNTER_OUTCOME + outcome);
+    }
+
+    /*
+        A sync stores the days of the forecast, and the next one is answered with a 304 that
+        leaves them alone.
+     */
+    public void testStoredRowsAndNotModified() {
+        SyncResult first = sync();
+        List<Long> days = queryDays();
+        assertEquals("Error: The forecast wasn't stored", DAYS, days.size());
+        assertEquals(DAYS, first.stats.numInserts);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext));
+        Cursor location = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{mLocation}, null);
+        assertTrue(location.moveToFirst());
+        assertEquals("Fake " + mLocation, location.getString(0));
+        location.close();
+        // The daily forecast, then the hourly one
+        assertEquals(2, mServer.getRequestCount());
+
+        long notModified = countOutcome(SyncMetrics.OUTCOME_NOT_MODIFIED);
+        long statuses = mMetrics.getCount(
+                SyncMetrics.COUNTER_HTTP_STATUS + HttpURLConnection.HTTP_NOT_MODIFIED);
+        SyncResult second = sync();
+        assertEquals("Error: The unchanged forecast wasn't short-circuited",
+                notModified + 1, countOutcome(SyncMetrics.OUTCOME_NOT_MODIFIED));
+        assertTrue(mMetrics.getCount(SyncMetrics.COUNTER_HTTP_STATUS
+                + HttpURLConnection.HTTP_NOT_MODIFIED) > statuses);
+        assertEquals("Error: A 304 wrote rows", 0, second.stats.numInserts);
+        assertEquals("Error: A 304 touched the stored days", days, queryDays());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext));
+    }
+
+    /*
+        A full response with the same forecast, as when the validators are lost, is parsed
+        again, but every day matches its stored fingerprint and nothing is written.
+     */
+    public void testUnchangedRowsSkipped() {
+        sync();
+        List<Long> days = queryDays();
+        assertEquals(DAYS, days.size());
+
+        ForecastValidators.clear(mContext, mLocation);
+        ForecastValidators.clear(mContext, WeatherContract.PATH_HOURLY + ":" + mLocation);
+        long skipped = mMetrics.getCount(SyncMetrics.COUNTER_ROWS_SKIPPED);
+        long written = mMetrics.getCount(SyncMetrics.COUNTER_ROWS_WRITTEN);
+        SyncResult second = sync();
+
+        assertEquals("Error: The forecast wasn't fetched again", 4, mServer.getRequestCount());
+        assertEquals("Error: The unchanged days weren't skipped",
+                skipped + DAYS, mMetrics.getCount(SyncMetrics.COUNTER_ROWS_SKIPPED));
+        assertEquals("Error: Unchanged days were written",
+                written, mMetrics.getCount(SyncMetrics.COUNTER_ROWS_WRITTEN));
+        assertEquals(0, second.stats.numInserts);
+        // Rewritten rows would have been replaced under new ids
+        assertEquals("Error: The stored days were touched", days, queryDays());
+    }
+
+    /*
+        Server errors are retried within the sync, and don't open the breaker if a retry gets
+        through.
+     */
+    public void testRetry() {
+        long ioErrors = countOutcome(SyncMetrics.OUTCOME_IO_ERROR);
+        mServer.failNext(RetryPolicy.MAX_ATTEMPTS - 1, HttpURLConnection.HTTP_UNAVAILABLE);
+        SyncResult syncResult = sync();
+
+        assertEquals("Error: The last attempt didn't store the forecast",
+                DAYS, queryDays().size());
+        assertEquals(0, syncResult.stats.numIoExceptions);
+        assertEquals(RetryPolicy.MAX_ATTEMPTS - 1,
+                countOutcome(SyncMetrics.OUTCOME_IO_ERROR) - ioErrors);
+        // Every attempt at the daily forecast, then the hourly one
+        assertEquals(RetryPolicy.MAX_ATTEMPTS + 1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.STATE_CLOSED, CircuitBreaker.getState(mContext, HOST));
+    }
+
+    /*
+        A sync that runs out of attempts reports the failure, and once the host has failed often
+        enough the breaker keeps the next sync off the network.
+     */
+    public void testBreaker() {
+        assertTrue(RetryPolicy.MAX_ATTEMPTS >= CircuitBreaker.FAILURE_THRESHOLD);
+        mServer.failNext(RetryPolicy.MAX_ATTEMPTS, HttpURLConnection.HTTP_UNAVAILABLE);
+        SyncResult failed = sync();
+
+        assertEquals(1, failed.stats.numIoExceptions);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        assertEquals(RetryPolicy.MAX_ATTEMPTS, mServer.getRequestCount());
+        assertTrue(queryDays().isEmpty());
+        assertEquals("Error: The breaker didn't open",
+                CircuitBreaker.STATE_OPEN, CircuitBreaker.getState(mContext, HOST));
+
+        long breakerOpen = countOutcome(SyncMetrics.OUTCOME_BREAKER_OPEN);
+        SyncResult refused = sync();
+        assertEquals("Error: The open breaker let a request through",
+                RetryPolicy.MAX_ATTEMPTS, mServer.getRequestCount());
+        assertEquals(breakerOpen + 1, countOutcome(SyncMetrics.OUTCOME_BREAKER_OPEN));
+        assertTrue("Error: The SyncManager wasn't told when to come back",
+                refused.delayUntil * 1000 > System.currentTimeMillis());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+    }
+
+    /*
+        A response slower than the read timeout fails the attempt, one within it goes through.
+        The slow responses would arrive well before the sync ended, so the failures can only
+        come from the timeout.
+     */
+    public void testTimeout() {
+        SunshineSyncAdapter.setHttpClient(new SyncHttpClient(1000, 500, 5000));
+
+        mServer.setLatency(100);
+        sync();
+        assertEquals(DAYS, queryDays().size());
+        deleteAllRecords();
+        ForecastValidators.clear(mContext, mLocation);
+
+        mServer.setLatency(1500);
+        long ioErrors = countOutcome(SyncMetrics.OUTCOME_IO_ERROR);
+        SyncResult syncResult = sync();
+
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertEquals(RetryPolicy.MAX_ATTEMPTS,
+                countOutcome(SyncMetrics.OUTCOME_IO_ERROR) - ioErrors);
+        assertTrue(queryDays().isEmpty());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.PowerManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestPublishStage extends AndroidTestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    // Holds back every gated publisher until it is opened
+    private final CountDownLatch mGate = new CountDownLatch(1);
+    // The wakelocks handed out, by publisher
+    private final HashMap<String, List<PowerManager.WakeLock>> mWakeLocks = new HashMap<>();
+    private PublishStage mStage;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStage = new PublishStage(mContext) {
+            @Override
+            PowerManager.WakeLock newWakeLock(String name) {
+                PowerManager.WakeLock wakeLock = super.newWakeLock(name);
+                synchronized (mWakeLocks) {
+                    List<PowerManager.WakeLock> wakeLocks = mWakeLocks.get(name);
+                    if (wakeLocks == null) {
+                        wakeLocks = new ArrayList<>();
+                        mWakeLocks.put(name, wakeLocks);
+                    }
+                    wakeLocks.add(wakeLock);
+                }
+                return wakeLock;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mGate.countDown();
+        super.tearDown();
+    }
+
+    private class TestPublisher extends PublishStage.Publisher {
+        final AtomicInteger published = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        private final boolean mGated;
+        private final boolean mFails;
+
+        TestPublisher(String name, boolean gated, boolean fails) {
+            super(name);
+            mGated = gated;
+            mFails = fails;
+        }
+
+        @Override
+        void publish() {
+            published.incrementAndGet();
+            started.countDown();
+            try {
+                if (mGated) {
+                    mGate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+                if (mFails) {
+                    throw new IllegalStateException("Failing on purpose");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                finished.incrementAndGet();
+            }
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue("Error: " + name + " didn't start",
+                    started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        void awaitFinished(final int count) {
+            new PollingCheck(TIMEOUT_SECONDS * 1000) {
+                @Override
+                protected boolean check() {
+                    return finished.get() >= count;
+                }
+            }.run();
+        }
+    }
+
+    private List<PowerManager.WakeLock> getWakeLocks(String name) {
+        synchronized (mWakeLocks) {
+            List<PowerManager.WakeLock> wakeLocks = mWakeLocks.get(name);
+            return wakeLocks != null ? new ArrayList<>(wakeLocks)
+                    : new ArrayList<PowerManager.WakeLock>();
+        }
+    }
+
+    /**
+     * Waits for the wakelocks of the publisher to be released, which happens right after it
+     * returns.
+     */
+    private void assertReleased(final String name) {
+        new PollingCheck(TIMEOUT_SECONDS * 1000) {
+            @Override
+            protected boolean check() {
+                for (PowerManager.WakeLock wakeLock : getWakeLocks(name)) {
+                    if (wakeLock.isHeld()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }.run();
+    }
+
+    /**
+     * @return the publishers now running on every thread of the stage, until the gate opens.
+     */
+    private TestPublisher[] occupyThreads() throws InterruptedException {
+        TestPublisher[] busy = new TestPublisher[PublishStage.THREADS];
+        for (int i = 0; i < busy.length; i++) {
+            busy[i] = new TestPublisher("busy" + i, true, false);
+            mStage.submit(busy[i]);
+        }
+        for (TestPublisher publisher : busy) {
+            publisher.awaitStarted();
+        }
+        return busy;
+    }
+
+    public void testWakeLockReleasedAfterSuccess() throws Exception {
+        TestPublisher publisher = new TestPublisher("success", true, false);
+        mStage.submit(publisher);
+        publisher.awaitStarted();
+        List<PowerManager.WakeLock> wakeLocks = getWakeLocks("success");
+        assertEquals(1, wakeLocks.size());
+        assertTrue("Error: The publication ran without a wakelock", wakeLocks.get(0).isHeld());
+
+        mGate.countDown();
+        publisher.awaitFinished(1);
+        assertReleased("success");
+    }
+
+    public void testWakeLockReleasedAfterException() throws Exception {
+        TestPublisher publisher = new TestPublisher("failure", true, true);
+        mStage.submit(publisher);
+        publisher.awaitStarted();
+        assertTrue(getWakeLocks("failure").get(0).isHeld());
+
+        mGate.countDown();
+        publisher.awaitFinished(1);
+        assertReleased("failure");
+
+        // The failure didn't take the stage down with it
+        mStage.submit(publisher);
+        publisher.awaitFinished(2);
+        assertEquals(2, publisher.published.get());
+        assertReleased("failure");
+    }
+
+    /*
+        A publisher that is already waiting to run isn't queued again, but one that is already
+        running is, as it may have read the database before the change.
+     */
+    public void testDuplicatesCollapse() throws Exception {
+        occupyThreads();
+        TestPublisher publisher = new TestPublisher("duplicate", false, false);
+        for (int i = 0; i < 3; i++) {
+            mStage.submit(publisher);
+        }
+        assertEquals("Error: A duplicate was queued", 1, getWakeLocks("duplicate").size());
+
+        mGate.countDown();
+        publisher.awaitFinished(1);
+        assertReleased("duplicate");
+        assertEquals(1, publisher.published.get());
+        assertEquals(1, getWakeLocks("duplicate").size());
+    }
+
+    public void testResubmittedWhileRunning() throws Exception {
+        TestPublisher publisher = new TestPublisher("running", true, false);
+        mStage.submit(publisher);
+        publisher.awaitStarted();
+        mStage.submit(publisher);
+        assertEquals("Error: A running publisher wasn't queued again",
+                2, getWakeLocks("running").size());
+
+        mGate.countDown();
+        publisher.awaitFinished(2);
+        assertEquals(2, publisher.published.get());
+        assertReleased("running");
+    }
+
+    /*
+        With every thread busy and the queue full, a publication is dropped and counted, its
+        wakelock released at once, and the publisher can be queued again later.
+     */
+    public void testQueueOverflow() throws Exception {
+        TestPublisher[] busy = occupyThreads();
+        TestPublisher[] queued = new TestPublisher[PublishStage.QUEUE_CAPACITY];
+        for (int i = 0; i < queued.length; i++) {
+            queued[i] = new TestPublisher("queued" + i, false, false);
+            mStage.submit(queued[i]);
+        }
+
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        long dropped = metrics.getCount(SyncMetrics.COUNTER_PUBLISH_DROPPED);
+        TestPublisher overflow = new TestPublisher("overflow", false, false);
+        mStage.submit(overflow);
+        assertEquals("Error: The overflowing publication wasn't counted",
+                dropped + 1, metrics.getCount(SyncMetrics.COUNTER_PUBLISH_DROPPED));
+        assertEquals(1, getWakeLocks("overflow").size());
+        assertFalse("Error: The dropped publication kept its wakelock",
+                getWakeLocks("overflow").get(0).isHeld());
+
+        mGate.countDown();
+        for (TestPublisher publisher : busy) {
+            publisher.awaitFinished(1);
+            assertReleased(publisher.name);
+        }
+        for (TestPublisher publisher : queued) {
+            publisher.awaitFinished(1);
+            assertReleased(publisher.name);
+        }
+        assertEquals("Error: The dropped publication ran", 0, overflow.published.get());
+
+        mStage.submit(overflow);
+        overflow.awaitFinished(1);
+        assertEquals(1, overflow.published.get());
+        assertReleased("overflow");
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.core.ForecastParser;
+import com.example.android.sunshine.core.HourlyForecastParser;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestResponseArchive extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "test_response_archive");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    static class CollectingVisitor implements ResponseArchive.Visitor {
+        final List<ResponseArchive.Record> records = new ArrayList<>();
+
+        @Override
+        public void visit(ResponseArchive.Record record) {
+            records.add(record);
+        }
+    }
+
+    private List<ResponseArchive.Record> readAll(ResponseArchive archive) {
+        CollectingVisitor visitor = new CollectingVisitor();
+        archive.read(visitor);
+        return visitor.records;
+    }
+
+    /*
+        An archived forecast has to parse just like the response it came from.
+     */
+    public void testRoundTrip() throws Throwable {
+        ResponseArchive archive = new ResponseArchive(mDirectory);
+        String forecast = FakeWeatherServer.syntheticForecast(TEST_LOCATION, 14, 0);
+        archive.append(ResponseArchive.KIND_DAILY, TEST_LOCATION, 1000L,
+                forecast.getBytes("UTF-8"));
+        archive.append(ResponseArchive.KIND_HOURLY, TEST_LOCATION, 2000L,
+                FakeWeatherServer.syntheticHourlyForecast(TEST_LOCATION, 0,
+                        FakeWeatherServer.HOURLY_STEPS).getBytes("UTF-8"));
+
+        List<ResponseArchive.Record> records = readAll(archive);
+        assertEquals(2, records.size());
+
+        ResponseArchive.Record daily = records.get(0);
+        assertEquals(ResponseArchive.KIND_DAILY, daily.kind);
+        assertEquals(1000L, daily.fetchedAt);
+        assertEquals(TEST_LOCATION, daily.location);
+        assertEquals(forecast.length(), daily.getBodyLength());
+        TestFakeWeatherServer.CountingHandler handler = new TestFakeWeatherServer.CountingHandler();
+        Reader reader = daily.openReader();
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, new ForecastParser().parse(reader, handler));
+        } finally {
+            reader.close();
+        }
+        assertEquals(14, handler.days);
+
+        ResponseArchive.Record hourly = records.get(1);
+        assertEquals(ResponseArchive.KIND_HOURLY, hourly.kind);
+        TestFakeWeatherServer.CountingHourlyHandler hourlyHandler =
+                new TestFakeWeatherServer.CountingHourlyHandler();
+        reader = hourly.openReader();
+        try {
+            new HourlyForecastParser().parse(reader, hourlyHandler);
+        } finally {
+            reader.close();
+        }
+        assertEquals(FakeWeatherServer.HOURLY_STEPS, hourlyHandler.steps);
+
+        // A new instance, as after a restart, reads what the old one wrote
+        assertEquals(2, readAll(new ResponseArchive(mDirectory)).size());
+    }
+
+    public void testEviction() throws Throwable {
+        ResponseArchive archive = new ResponseArchive(mDirectory);
+        byte[] body = new byte[ResponseArchive.MAX_RECORD_BYTES];
+        int appends = 3 * ResponseArchive.MAX_ARCHIVE_BYTES / body.length;
+        for (int i = 0; i < appends; i++) {
+            archive.append(ResponseArchive.KIND_DAILY, TEST_LOCATION, i, body);
+        }
+
+        assertTrue("Error: The archive grew past its cap",
+                archive.getSize() <= ResponseArchive.MAX_ARCHIVE_BYTES
+                        + ResponseArchive.SEGMENT_BYTES + body.length);
+        List<ResponseArchive.Record> records = readAll(archive);
+        assertFalse(records.isEmpty());
+        assertEquals("Error: The newest record was evicted",
+                appends - 1, records.get(records.size() - 1).fetchedAt);
+        assertTrue("Error: The oldest records were kept", records.get(0).fetchedAt > 0);
+
+        // Oversized bodies aren't archived at all
+        archive.append(ResponseArchive.KIND_DAILY, TEST_LOCATION, appends,
+                new byte[ResponseArchive.MAX_RECORD_BYTES + 1]);
+        records = readAll(archive);
+        assertEquals(appends - 1, records.get(records.size() - 1).fetchedAt);
+    }
+
+    /*
+        A capture becomes a record only when it is committed, and leaves no file behind either
+        way.  Oversized bodies are dropped as they grow.
+     */
+    public void testCapture() throws Throwable {
+        ResponseArchive archive = new ResponseArchive(mDirectory);
+        byte[] body = FakeWeatherServer.syntheticForecast(TEST_LOCATION, 14, 0).getBytes("UTF-8");
+
+        ResponseArchive.Capture capture =
+                archive.startCapture(ResponseArchive.KIND_DAILY, TEST_LOCATION);
+        // In pieces, as the decoder reads them
+        for (int offset = 0; offset < body.length; offset += 1000) {
+            capture.write(body, offset, Math.min(1000, body.length - offset));
+        }
+        capture.commit(1L);
+
+        ResponseArchive.Capture discarded =
+                archive.startCapture(ResponseArchive.KIND_DAILY, TEST_LOCATION);
+        discarded.write(body, 0, body.length);
+        discarded.discard();
+
+        ResponseArchive.Capture oversized =
+                archive.startCapture(ResponseArchive.KIND_DAILY, TEST_LOCATION);
+        byte[] chunk = new byte[ResponseArchive.MAX_RECORD_BYTES / 2];
+        for (int i = 0; i < 3; i++) {
+            oversized.write(chunk, 0, chunk.length);
+        }
+        oversized.commit(2L);
+
+        List<ResponseArchive.Record> records = readAll(archive);
+        assertEquals("Error: Only the committed capture should be archived", 1, records.size());
+        assertEquals(1L, records.get(0).fetchedAt);
+        assertEquals(body.length, records.get(0).getBodyLength());
+        TestFakeWeatherServer.CountingHandler handler = new TestFakeWeatherServer.CountingHandler();
+        Reader reader = records.get(0).openReader();
+        try {
+            new ForecastParser().parse(reader, handler);
+        } finally {
+            reader.close();
+        }
+        assertEquals(14, handler.days);
+        assertEquals("Error: A capture left its file behind", 1, mDirectory.listFiles().length);
+
+        // The captures of a process that died are deleted by the next one
+        archive.startCapture(ResponseArchive.KIND_DAILY, TEST_LOCATION);
+        new ResponseArchive(mDirectory).startCapture(ResponseArchive.KIND_DAILY, TEST_LOCATION);
+        assertEquals(2, mDirectory.listFiles().length);
+    }
+
+    /*
+        A crash while appending leaves a torn record at the end of a segment.  It must be
+        skipped without losing the records before it or the ones appended after a restart.
+     */
+    public void testTornRecord() throws Throwable {
+        ResponseArchive archive = new ResponseArchive(mDirectory);
+        byte[] body = FakeWeatherServer.syntheticForecast(TEST_LOCATION, 3, 0).getBytes("UTF-8");
+        archive.append(ResponseArchive.KIND_DAILY, TEST_LOCATION, 1L, body);
+        archive.append(ResponseArchive.KIND_DAILY, TEST_LOCATION, 2L, body);
+
+        File[] segments = mDirectory.listFiles();
+        assertEquals(1, segments.length);
+        RandomAccessFile file = new RandomAccessFile(segments[0], "rw");
+        try {
+            file.setLength(file.length() - 10);
+        } finally {
+            file.close();
+        }
+
+        archive = new ResponseArchive(mDirectory);
+        archive.append(ResponseArchive.KIND_DAILY, TEST_LOCATION, 3L, body);
+
+        List<ResponseArchive.Record> records = readAll(archive);
+        assertEquals(2, records.size());
+        assertEquals(1L, records.get(0).fetchedAt);
+        assertEquals(3L, records.get(1).fetchedAt);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestRetryPolicy extends AndroidTestCase {
+
+    public void testAttempts() {
+        for (int attempt = 0; attempt < RetryPolicy.MAX_ATTEMPTS - 1; attempt++) {
+            assertTrue(RetryPolicy.shouldRetry(attempt));
+        }
+        assertFalse("Error: Retried past the last attempt",
+                RetryPolicy.shouldRetry(RetryPolicy.MAX_ATTEMPTS - 1));
+    }
+
+    /*
+        Delays stay under the exponential bound of their attempt, capped at the maximum, and
+        are spread out below it.
+     */
+    public void testDelayBounds() {
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long bound = Math.min(RetryPolicy.MAX_DELAY_MILLIS,
+                    RetryPolicy.BASE_DELAY_MILLIS << Math.min(attempt, 30));
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 200; i++) {
+                long delay = RetryPolicy.getDelayMillis(attempt);
+                assertTrue("Error: Attempt " + attempt + " waited " + delay + "ms",
+                        delay >= 0 && delay < bound);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("Error: The delays of attempt " + attempt + " weren't jittered",
+                    max - min > bound / 4);
+        }
+    }
+}
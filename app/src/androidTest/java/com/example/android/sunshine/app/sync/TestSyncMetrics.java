@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class TestSyncMetrics extends AndroidTestCase {
+    private static final String PHASE = "test_phase";
+    private static final String COUNTER = "test_counter";
+    private static final long MILLIS = 1000000;
+
+    // Not the shared instance, which the syncs of other tests write to
+    private final SyncMetrics mMetrics = new SyncMetrics();
+
+    public void testPercentiles() {
+        assertEquals("Error: A phase without samples has a percentile",
+                -1, mMetrics.getPercentile(PHASE, 50));
+        // Recorded out of order, 1 to 100 ms
+        for (int i = 100; i > 0; i--) {
+            mMetrics.record(PHASE, i * MILLIS);
+        }
+        assertEquals(50 * MILLIS, mMetrics.getPercentile(PHASE, 50));
+        assertEquals(90 * MILLIS, mMetrics.getPercentile(PHASE, 90));
+        assertEquals(100 * MILLIS, mMetrics.getPercentile(PHASE, 100));
+        assertEquals(1 * MILLIS, mMetrics.getPercentile(PHASE, 0));
+
+        mMetrics.record(PHASE + "_single", 7 * MILLIS);
+        assertEquals(7 * MILLIS, mMetrics.getPercentile(PHASE + "_single", 50));
+        assertEquals(7 * MILLIS, mMetrics.getPercentile(PHASE + "_single", 90));
+    }
+
+    /*
+        The percentiles describe the last WINDOW samples only, the older ones are overwritten.
+     */
+    public void testWindow() {
+        for (int i = 0; i < SyncMetrics.WINDOW; i++) {
+            mMetrics.record(PHASE, 1000 * MILLIS);
+        }
+        // Half the window
+        for (int i = 0; i < SyncMetrics.WINDOW / 2; i++) {
+            mMetrics.record(PHASE, 10 * MILLIS);
+        }
+        assertEquals(10 * MILLIS, mMetrics.getPercentile(PHASE, 50));
+        assertEquals(1000 * MILLIS, mMetrics.getPercentile(PHASE, 90));
+
+        // The rest of it, and around the ring once more
+        for (int i = 0; i < SyncMetrics.WINDOW / 2 + SyncMetrics.WINDOW; i++) {
+            mMetrics.record(PHASE, 10 * MILLIS);
+        }
+        assertEquals("Error: A sample older than the window was kept",
+                10 * MILLIS, mMetrics.getPercentile(PHASE, 100));
+    }
+
+    public void testCounters() {
+        assertEquals(0, mMetrics.getCount(COUNTER));
+        mMetrics.count(COUNTER, 2);
+        mMetrics.count(COUNTER, 3);
+        assertEquals(5, mMetrics.getCount(COUNTER));
+        mMetrics.countOutcome(SyncMetrics.OUTCOME_OK);
+        assertEquals(1, mMetrics.getCount(SyncMetrics.COUNTER_OUTCOME + SyncMetrics.OUTCOME_OK));
+    }
+
+    private String dump(String... args) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        mMetrics.dump(mContext, writer, args);
+        writer.flush();
+        return out.toString();
+    }
+
+    /*
+        The dump prints the metrics and leaves them alone, unless it is asked to reset them,
+        which happens once they are printed.
+     */
+    public void testDumpReset() {
+        mMetrics.record(PHASE, 5 * MILLIS);
+        mMetrics.count(COUNTER, 4);
+
+        String dump = dump();
+        assertTrue("Error: The phase wasn't dumped", dump.contains(PHASE));
+        assertTrue("Error: The counter wasn't dumped", dump.contains(COUNTER));
+        assertFalse(dump.contains("Metrics reset"));
+        assertEquals(4, mMetrics.getCount(COUNTER));
+        assertEquals(5 * MILLIS, mMetrics.getPercentile(PHASE, 50));
+
+        dump = dump("-a", SyncMetrics.ARG_RESET);
+        assertTrue("Error: The metrics weren't dumped before the reset",
+                dump.contains(PHASE) && dump.contains(COUNTER));
+        assertTrue(dump.contains("Metrics reset"));
+        assertEquals("Error: The counters weren't reset", 0, mMetrics.getCount(COUNTER));
+        assertEquals("Error: The phases weren't reset", -1, mMetrics.getPercentile(PHASE, 50));
+        assertFalse(dump().contains(PHASE));
+
+        // No arguments at all, as dumpsys may pass
+        mMetrics.count(COUNTER, 1);
+        StringWriter out = new StringWriter();
+        mMetrics.dump(mContext, new PrintWriter(out), null);
+        assertEquals(1, mMetrics.getCount(COUNTER));
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+
+    /**
+     * Keeps the requests it would hand to the SyncManager, so no real sync starts.
+     */
+    static class RecordingCoalescer extends SyncRequestCoalescer {
+        final List<Bundle> requested = new ArrayList<>();
+
+        @Override
+        void requestSync(Context context, Bundle extras) {
+            requested.add(extras);
+        }
+    }
+
+    private RecordingCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new RecordingCoalescer();
+    }
+
+    /*
+        Requests made before the sync starts join it, requests made while it runs share a
+        single follow-up sync.
+     */
+    public void testMerging() {
+        long first = mCoalescer.request(mContext, false);
+        assertEquals("Error: A waiting sync was asked for again",
+                first, mCoalescer.request(mContext, false));
+        assertEquals(1, mCoalescer.requested.size());
+
+        mCoalescer.onSyncStarted(mCoalescer.requested.get(0));
+        long second = mCoalescer.request(mContext, false);
+        assertEquals(second, mCoalescer.request(mContext, false));
+        assertTrue(second > first);
+        assertEquals("Error: A sync was asked for while one was running",
+                1, mCoalescer.requested.size());
+
+        mCoalescer.onSyncFinished(mContext);
+        assertEquals("Error: The follow-up sync wasn't asked for",
+                2, mCoalescer.requested.size());
+        assertEquals(4, mCoalescer.getRequestCount());
+        assertEquals(2, mCoalescer.getIssuedCount());
+    }
+
+    /*
+        Asking for every location widens the sync that is waiting rather than adding another.
+     */
+    public void testWidening() {
+        mCoalescer.onSyncStarted(periodicExtras());
+        long ticket = mCoalescer.request(mContext, false);
+        assertEquals(ticket, mCoalescer.request(mContext, true));
+        assertTrue(mCoalescer.requested.isEmpty());
+        mCoalescer.onSyncFinished(mContext);
+        assertEquals(1, mCoalescer.requested.size());
+        assertTrue("Error: The follow-up sync wasn't widened",
+                mCoalescer.requested.get(0).getBoolean(
+                        SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS));
+
+        // Once asked for, a narrower sync is asked for again with every location
+        RecordingCoalescer coalescer = new RecordingCoalescer();
+        long narrow = coalescer.request(mContext, false);
+        assertEquals(narrow, coalescer.request(mContext, true));
+        assertEquals(2, coalescer.requested.size());
+        assertFalse(coalescer.requested.get(0).getBoolean(
+                SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS));
+        assertTrue(coalescer.requested.get(1).getBoolean(
+                SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS));
+
+        // ...and the narrow one, if it starts first, doesn't serve the requests
+        coalescer.onSyncStarted(coalescer.requested.get(0));
+        coalescer.onSyncFinished(mContext);
+        assertFalse("Error: A single location sync served an all-locations request",
+                coalescer.isComplete(narrow));
+        coalescer.onSyncStarted(coalescer.requested.get(1));
+        coalescer.onSyncFinished(mContext);
+        assertTrue(coalescer.isComplete(narrow));
+    }
+
+    /*
+        A ticket is complete once the sync serving it finishes, and not before.  Syncs nobody
+        asked us for don't complete it.
+     */
+    public void testTicketCompletion() throws Exception {
+        long ticket = mCoalescer.request(mContext, false);
+        assertFalse(mCoalescer.isComplete(ticket));
+
+        mCoalescer.onSyncStarted(periodicExtras());
+        mCoalescer.onSyncFinished(mContext);
+        assertFalse("Error: A periodic sync completed a requested one",
+                mCoalescer.isComplete(ticket));
+        assertFalse(mCoalescer.await(ticket, 10));
+
+        Bundle replay = new Bundle();
+        replay.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        replay.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_REPLAY, true);
+        mCoalescer.onSyncStarted(replay);
+        mCoalescer.onSyncFinished(mContext);
+        assertFalse("Error: A replay completed a requested sync", mCoalescer.isComplete(ticket));
+
+        mCoalescer.onSyncStarted(mCoalescer.requested.get(0));
+        assertFalse(mCoalescer.isComplete(ticket));
+        mCoalescer.onSyncFinished(mContext);
+        assertTrue(mCoalescer.isComplete(ticket));
+        assertTrue(mCoalescer.await(ticket, 0));
+        assertEquals(1, mCoalescer.getIssuedCount());
+
+        // A request made while a periodic sync runs waits for a sync of its own
+        mCoalescer.onSyncStarted(periodicExtras());
+        long next = mCoalescer.request(mContext, false);
+        mCoalescer.onSyncFinished(mContext);
+        assertFalse(mCoalescer.isComplete(next));
+        mCoalescer.onSyncStarted(mCoalescer.requested.get(1));
+        mCoalescer.onSyncFinished(mContext);
+        assertTrue(mCoalescer.isComplete(next));
+    }
+
+    private static Bundle periodicExtras() {
+        return new Bundle();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+    private static final long NOW = 1420070400000L;
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    // A forecast that changes now and then, fetched an hour ago, last seen two hours ago, on a
+    // phone with no widgets that isn't charging, for a single location
+    private static final float NORMAL_RATE = 0.3f;
+    private static final long LAST_SUCCESS = NOW - HOUR_IN_MILLIS;
+    private static final long LAST_VIEWED = NOW - 2 * HOUR_IN_MILLIS;
+
+    private static SyncScheduler.Decision decide(float changeRate, long lastSuccess,
+                                                 long lastViewed, boolean hasWidgets,
+                                                 boolean chargingUnmetered, int locations) {
+        SyncScheduler.Decision decision = SyncScheduler.decide(NOW, changeRate, lastSuccess,
+                lastViewed, hasWidgets, chargingUnmetered, locations);
+        assertEquals("Error: The flex isn't a third of the interval",
+                decision.intervalSeconds / 3, decision.flexSeconds);
+        assertTrue("Error: " + decision + " isn't clamped",
+                decision.intervalSeconds >= SyncScheduler.MIN_INTERVAL
+                        && decision.intervalSeconds <= SyncScheduler.MAX_INTERVAL);
+        assertEquals(NOW, decision.decidedAt);
+        return decision;
+    }
+
+    public void testDefault() {
+        SyncScheduler.Decision decision =
+                decide(NORMAL_RATE, LAST_SUCCESS, LAST_VIEWED, false, false, 1);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, decision.intervalSeconds);
+        assertFalse(decision.allLocations);
+    }
+
+    public void testChangeRate() {
+        assertEquals("Error: A changing forecast wasn't fetched more often",
+                SunshineSyncAdapter.SYNC_INTERVAL / 2,
+                decide(0.9f, LAST_SUCCESS, LAST_VIEWED, false, false, 1).intervalSeconds);
+        assertEquals("Error: A stable forecast wasn't fetched less often",
+                SunshineSyncAdapter.SYNC_INTERVAL * 2,
+                decide(0.05f, LAST_SUCCESS, LAST_VIEWED, false, false, 1).intervalSeconds);
+    }
+
+    public void testViewed() {
+        assertEquals("Error: The weather in use wasn't fetched at the shortest interval",
+                SyncScheduler.MIN_INTERVAL,
+                decide(NORMAL_RATE, LAST_SUCCESS, NOW - HOUR_IN_MILLIS / 2, false, false, 1)
+                        .intervalSeconds);
+        assertEquals("Error: An idle phone wasn't left alone",
+                SunshineSyncAdapter.SYNC_INTERVAL * 2,
+                decide(NORMAL_RATE, LAST_SUCCESS, NOW - 9 * HOUR_IN_MILLIS, false, false, 1)
+                        .intervalSeconds);
+        assertEquals("Error: The widgets of an idle phone weren't kept current",
+                SunshineSyncAdapter.SYNC_INTERVAL,
+                decide(NORMAL_RATE, LAST_SUCCESS, NOW - 9 * HOUR_IN_MILLIS, true, false, 1)
+                        .intervalSeconds);
+        // Never viewed counts as idle
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 2,
+                decide(NORMAL_RATE, LAST_SUCCESS, 0, false, false, 1).intervalSeconds);
+    }
+
+    public void testCharging() {
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL / 2,
+                decide(NORMAL_RATE, LAST_SUCCESS, LAST_VIEWED, false, true, 1).intervalSeconds);
+    }
+
+    public void testStale() {
+        assertEquals("Error: Stale data wasn't fetched at the shortest interval",
+                SyncScheduler.MIN_INTERVAL,
+                decide(0.05f, NOW - 13 * HOUR_IN_MILLIS, LAST_VIEWED, false, false, 1)
+                        .intervalSeconds);
+        // Two missed syncs of the interval that would be chosen, not of the default one
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 2,
+                decide(0.05f, NOW - 11 * HOUR_IN_MILLIS, LAST_VIEWED, false, false, 1)
+                        .intervalSeconds);
+        // Never synced isn't stale, there's nothing to be stale
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL,
+                decide(NORMAL_RATE, 0, LAST_VIEWED, false, false, 1).intervalSeconds);
+    }
+
+    public void testLocations() {
+        assertFalse(decide(NORMAL_RATE, LAST_SUCCESS, LAST_VIEWED, false, false, 0)
+                .allLocations);
+        SyncScheduler.Decision decision =
+                decide(NORMAL_RATE, LAST_SUCCESS, LAST_VIEWED, false, false, 3);
+        assertTrue("Error: Several locations weren't all synced", decision.allLocations);
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL, decision.intervalSeconds);
+    }
+
+    public void testClamping() {
+        assertEquals("Error: The interval went under the minimum",
+                SyncScheduler.MIN_INTERVAL,
+                decide(0.9f, LAST_SUCCESS, LAST_VIEWED, false, true, 1).intervalSeconds);
+        // Stretched by every signal that stretches it
+        assertEquals("Error: The interval didn't reach the maximum",
+                SyncScheduler.MAX_INTERVAL,
+                decide(0.05f, LAST_SUCCESS, 0, false, false, 1).intervalSeconds);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.sunshine.app;
+
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+/**
+ * Shows the same {@link SyncMetrics} dump as {@code dumpsys}, for when there is no adb at
+ * hand.  Debug builds only, and not in the launcher: it is linked from the settings, and
+ * started with {@code adb shell am start -n
+ * com.example.android.sunshine.app/.SyncMetricsActivity}.  Tap the text to refresh it.
+ */
+public class SyncMetricsActivity extends AppCompatActivity {
+    private TextView mTextView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sync_metrics);
+        mTextView = (TextView) findViewById(R.id.sync_metrics_text);
+        mTextView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                refresh();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.sync_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_sync_metrics_reset) {
+            SyncMetrics.getInstance().reset();
+            refresh();
+            return true;
+        } else if (item.getItemId() == R.id.action_sync_metrics_replay) {
+            SunshineSyncAdapter.replayArchive(this);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void refresh() {
+        mTextView.setText(SyncMetrics.getInstance().dump(this));
+    }
+}
@@ -33,6 +33,7 @@ import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.format.DateFormat;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -46,8 +47,11 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.CircuitBreaker;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.Date;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
@@ -411,6 +415,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                 @SunshineSyncAdapter.LocationStatus int location = Utility.getLocationStatus(getActivity());
                 switch (location) {
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                        // if we've stopped asking for a while, say until when
+                        long openUntil = CircuitBreaker.getOpenUntil(getActivity());
+                        if (openUntil > 0) {
+                            tv.setText(getString(R.string.empty_forecast_list_server_paused,
+                                    DateFormat.getTimeFormat(getActivity()).format(new Date(openUntil))));
+                            return;
+                        }
                         message = R.string.empty_forecast_list_server_down;
                         break;
                     case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
@@ -18,6 +18,7 @@ package com.example.android.sunshine.app;
 import android.annotation.TargetApi;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.ResolveInfo;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -25,6 +26,7 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
+import com.example.android.sunshine.app.data.NotificationBatcher;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
@@ -38,6 +40,9 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
  */
 public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+    // Part of debug builds only
+    private static final String SYNC_METRICS_ACTIVITY =
+            "com.example.android.sunshine.app.SyncMetricsActivity";
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -50,6 +55,24 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+
+        addSyncMetricsPreference();
+    }
+
+    /**
+     * Links to the sync metrics screen, which only debug builds have.  Its label comes from
+     * the activity itself, as release builds have neither the screen nor its strings.
+     */
+    private void addSyncMetricsPreference() {
+        Intent intent = new Intent().setClassName(this, SYNC_METRICS_ACTIVITY);
+        ResolveInfo info = getPackageManager().resolveActivity(intent, 0);
+        if (info == null) {
+            return;
+        }
+        Preference preference = new Preference(this);
+        preference.setTitle(info.loadLabel(getPackageManager()));
+        preference.setIntent(intent);
+        getPreferenceScreen().addPreference(preference);
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -138,14 +161,14 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            NotificationBatcher.notifyChange(this, WeatherContract.WeatherEntry.CONTENT_URI);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            NotificationBatcher.notifyChange(this, WeatherContract.WeatherEntry.CONTENT_URI);
         }
     }
 
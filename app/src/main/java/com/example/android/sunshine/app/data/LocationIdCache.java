@@ -0,0 +1,48 @@
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+
+/**
+ * Maps location settings to the ids of their rows in the location table, so a sync doesn't
+ * have to ask the provider for the id of every city it stores a forecast for.
+ *
+ * The cache is shared by the whole process, which is also the process of the
+ * {@link WeatherProvider}.  The provider clears it whenever location rows are updated or
+ * deleted, and {@link WeatherDbHelper} when the tables are created, so an id is never served
+ * after its row is gone.  Inserts can't make an id wrong, so they leave it alone.
+ */
+public class LocationIdCache {
+    private static final HashMap<String, Long> sIds = new HashMap<>();
+    // Bumped by every invalidation, see put
+    private static long sGeneration;
+
+    /**
+     * @return the cached id of the location, or -1 if it isn't cached.
+     */
+    public static synchronized long get(String locationSetting) {
+        Long id = sIds.get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @return a token to pass to {@link #put}, taken before looking the id up.
+     */
+    public static synchronized long getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Caches an id, unless the cache was invalidated since {@code generation} was taken, in
+     * which case the id may already be stale.
+     */
+    public static synchronized void put(String locationSetting, long id, long generation) {
+        if (generation == sGeneration) {
+            sIds.put(locationSetting, id);
+        }
+    }
+
+    static synchronized void invalidate() {
+        sIds.clear();
+        sGeneration++;
+    }
+}
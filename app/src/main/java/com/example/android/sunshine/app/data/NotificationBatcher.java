@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Merges the change notifications of the weather data into one per uri.  A sync writes the
+ * daily and hourly forecasts of every location it stores, one after the other, and each
+ * write used to make every loader watching the forecast query it again.  A change is now
+ * delivered once no other change of the data has followed it for {@link #DEBOUNCE_MILLIS}, and
+ * at the latest {@link #MAX_DELAY_MILLIS} after the first change that is waiting.
+ *
+ * Shared by the process, so the changes of the provider and the ones the settings announce
+ * are merged together.  Deliveries happen on the main thread.
+ */
+public class NotificationBatcher {
+    static final long DEBOUNCE_MILLIS = 100;
+    static final long MAX_DELAY_MILLIS = 1000;
+
+    // The uris waiting for delivery, in the order they first changed
+    private static final LinkedHashSet<Uri> sPending = new LinkedHashSet<>();
+    private static long sFirstPendingTime;
+    private static Handler sHandler;
+    private static ContentResolver sResolver;
+    private static int sFired;
+    private static int sDelivered;
+
+    private static final Runnable sDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /**
+     * Notifies the observers of the uri shortly, together with the other uris that change
+     * meanwhile.  Like {@link ContentResolver#notifyChange}, call it once the change is
+     * committed.
+     */
+    public static synchronized void notifyChange(Context context, Uri uri) {
+        sFired++;
+        if (sHandler == null) {
+            // The application's resolver, which doesn't hold on to an activity
+            Context applicationContext = context.getApplicationContext();
+            sResolver = (applicationContext != null ? applicationContext : context)
+                    .getContentResolver();
+            sHandler = new Handler(Looper.getMainLooper());
+        }
+        long now = SystemClock.uptimeMillis();
+        if (sPending.isEmpty()) {
+            sFirstPendingTime = now;
+        }
+        sPending.add(uri);
+        sHandler.removeCallbacks(sDeliver);
+        sHandler.postAtTime(sDeliver,
+                Math.min(now + DEBOUNCE_MILLIS, sFirstPendingTime + MAX_DELAY_MILLIS));
+    }
+
+    private static void deliver() {
+        ArrayList<Uri> uris;
+        ContentResolver resolver;
+        synchronized (NotificationBatcher.class) {
+            uris = new ArrayList<>(sPending);
+            sPending.clear();
+            sDelivered += uris.size();
+            resolver = sResolver;
+        }
+        // Outside the lock, the resolver calls into the observers' processes
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return how many changes were announced so far.
+     */
+    public static synchronized int getFiredCount() {
+        return sFired;
+    }
+
+    /**
+     * @return how many notifications the observers were sent for them so far.
+     */
+    public static synchronized int getDeliveredCount() {
+        return sDelivered;
+    }
+}
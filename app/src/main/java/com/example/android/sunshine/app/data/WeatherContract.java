@@ -15,12 +15,25 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.ArrayList;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,6 +56,31 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+
+    // Query parameters of a bulk insert that replaces the forecast window of a location: the
+    // rows of the location from before the start of the window are deleted in the same
+    // transaction as the insert.  See WeatherEntry.buildWeatherWindow and
+    // HourlyEntry.buildHourlyWindow.  Being a uri, it works on every version, unlike the
+    // methods of the provider's call below, which need API 11 and a fallback before it.
+    public static final String PARAM_WINDOW_LOCATION = "window_location";
+    public static final String PARAM_WINDOW_START = "window_start";
+
+    // A method of the provider's call, which reads a few days of a weather uri into a Bundle of
+    // arrays rather than a Cursor.  The arg is the uri, and EXTRA_DAYS the most days to read.
+    // See WeatherEntry.getSummary.
+    public static final String METHOD_GET_SUMMARY = "get_summary";
+    public static final String EXTRA_DAYS = "days";
+
+    // A method of the provider's call, which stores days of a location handed over as a Bundle
+    // of arrays, one per column, rather than as ContentValues.  The arg is the location id, and
+    // EXTRA_PRUNE_UP_TO, if present, the last date whose rows of the location are deleted in
+    // the same transaction.  The result holds EXTRA_ROWS_STORED and EXTRA_ROWS_PRUNED.
+    // See WeatherEntry.writeDays.
+    public static final String METHOD_WRITE_DAYS = "write_days";
+    public static final String EXTRA_PRUNE_UP_TO = "prune_up_to";
+    public static final String EXTRA_ROWS_STORED = "rows_stored";
+    public static final String EXTRA_ROWS_PRUNED = "rows_pruned";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -54,6 +92,31 @@ public class WeatherContract {
         return time.setJulianDay(julianDay);
     }
 
+    static Uri buildWindowUri(Uri contentUri, long locationId, long windowStart) {
+        return contentUri.buildUpon()
+                .appendQueryParameter(PARAM_WINDOW_LOCATION, Long.toString(locationId))
+                .appendQueryParameter(PARAM_WINDOW_START, Long.toString(windowStart)).build();
+    }
+
+    /**
+     * @return the location whose window a bulk insert replaces, or -1 if it replaces none.
+     */
+    public static long getWindowLocationFromUri(Uri uri) {
+        String locationString = uri.getQueryParameter(PARAM_WINDOW_LOCATION);
+        if (null != locationString && locationString.length() > 0)
+            return Long.parseLong(locationString);
+        else
+            return -1;
+    }
+
+    public static long getWindowStartFromUri(Uri uri) {
+        String startString = uri.getQueryParameter(PARAM_WINDOW_START);
+        if (null != startString && startString.length() > 0)
+            return Long.parseLong(startString);
+        else
+            return 0;
+    }
+
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
@@ -144,17 +207,52 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * @return the uri to bulk insert the forecast of a location through, replacing its
+         * stored days before {@code startDate}.
+         */
+        public static Uri buildWeatherWindow(long locationId, long startDate) {
+            return buildWindowUri(CONTENT_URI, locationId, normalizeDate(startDate));
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @return the uri of the days of the location row with the id,
+         * location/[id]/weather.  It reads the weather table alone, without matching the
+         * location setting, unless columns of the location are asked for.
+         */
+        public static Uri buildWeatherLocationId(long locationId) {
+            return ContentUris.withAppendedId(LocationEntry.CONTENT_URI, locationId).buildUpon()
+                    .appendPath(PATH_WEATHER).build();
+        }
+
+        public static Uri buildWeatherLocationIdWithStartDate(long locationId, long startDate) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildWeatherLocationIdWithDate(long locationId, long date) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(1));
+        }
+
+        // The date is the last segment of both weather/[setting]/[date] and
+        // location/[id]/weather/[date]
         public static long getDateFromUri(Uri uri) {
-            return Long.parseLong(uri.getPathSegments().get(2));
+            return Long.parseLong(uri.getLastPathSegment());
         }
 
         public static long getStartDateFromUri(Uri uri) {
@@ -164,5 +262,329 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /**
+         * @return today's summary for the location, empty if today isn't stored.
+         */
+        public static Summary getToday(ContentResolver resolver, String locationSetting) {
+            return getSummary(resolver,
+                    buildWeatherLocationWithDate(locationSetting, System.currentTimeMillis()), 1);
+        }
+
+        /**
+         * @return the summaries of at most {@code days} days of the location, from
+         * {@code startDate} on.
+         */
+        public static Summary getDays(ContentResolver resolver, String locationSetting,
+                                      long startDate, int days) {
+            return getSummary(resolver,
+                    buildWeatherLocationWithStartDate(locationSetting, startDate), days);
+        }
+
+        /**
+         * Reads the summaries of the first days of a weather uri with one call to the provider,
+         * see {@link #METHOD_GET_SUMMARY}.  Before Honeycomb, which has no ContentResolver.call,
+         * they are queried instead.
+         */
+        public static Summary getSummary(ContentResolver resolver, Uri uri, int days) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return new Summary(callGetSummary(resolver, uri, days));
+            }
+            Cursor cursor = resolver.query(uri, Summary.COLUMNS, null, null,
+                    COLUMN_DATE + " ASC");
+            if (cursor == null) {
+                return new Summary(null);
+            }
+            try {
+                return new Summary(Summary.toBundle(cursor, days));
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Bundle callGetSummary(ContentResolver resolver, Uri uri, int days) {
+            Bundle extras = new Bundle();
+            extras.putInt(EXTRA_DAYS, days);
+            return resolver.call(CONTENT_URI, METHOD_GET_SUMMARY, uri.toString(), extras);
+        }
+
+        /**
+         * Stores rows of a batch as days of a location, and deletes the days of the location up
+         * to a date, in one transaction, see {@link #METHOD_WRITE_DAYS}.  The rows reach the
+         * provider as arrays of primitives, which it binds straight to its compiled INSERT.
+         * Before Honeycomb, which has no ContentResolver.call, they go through applyBatch as
+         * ContentValues instead.
+         *
+         * @param rows      the rows of the batch to store, in its first {@code count} entries.
+         * @param pruneUpTo the last date whose days are deleted, or -1 to delete none.
+         * @return how many rows were stored and deleted, under {@link #EXTRA_ROWS_STORED} and
+         * {@link #EXTRA_ROWS_PRUNED}.
+         */
+        public static Bundle writeDays(ContentResolver resolver, long locationId,
+                                       ForecastBatch batch, int[] rows, int count,
+                                       long pruneUpTo)
+                throws RemoteException, OperationApplicationException {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                Bundle days = toBundle(batch, rows, count);
+                if (pruneUpTo != -1) {
+                    days.putLong(EXTRA_PRUNE_UP_TO, pruneUpTo);
+                }
+                return callWriteDays(resolver, locationId, days);
+            }
+
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(count + 1);
+            for (int i = 0; i < count; i++) {
+                operations.add(ContentProviderOperation.newInsert(CONTENT_URI)
+                        .withValues(toContentValues(locationId, batch, rows[i]))
+                        .build());
+            }
+            if (pruneUpTo != -1) {
+                operations.add(ContentProviderOperation.newDelete(CONTENT_URI)
+                        .withSelection(COLUMN_LOC_KEY + " = ? AND " + COLUMN_DATE + " <= ?",
+                                new String[]{Long.toString(locationId), Long.toString(pruneUpTo)})
+                        .build());
+            }
+            ContentProviderResult[] results = resolver.applyBatch(CONTENT_AUTHORITY, operations);
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_ROWS_STORED, count);
+            result.putInt(EXTRA_ROWS_PRUNED,
+                    pruneUpTo != -1 ? results[results.length - 1].count : 0);
+            return result;
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Bundle callWriteDays(ContentResolver resolver, long locationId,
+                                            Bundle days) {
+            return resolver.call(CONTENT_URI, METHOD_WRITE_DAYS, Long.toString(locationId), days);
+        }
+
+        /**
+         * @return the rows as a Bundle of arrays, keyed by the column they go to.
+         */
+        static Bundle toBundle(ForecastBatch batch, int[] rows, int count) {
+            long[] dates = new long[count];
+            int[] humidities = new int[count];
+            double[] pressures = new double[count];
+            double[] windSpeeds = new double[count];
+            double[] degrees = new double[count];
+            double[] highs = new double[count];
+            double[] lows = new double[count];
+            String[] descriptions = new String[count];
+            int[] weatherIds = new int[count];
+            for (int i = 0; i < count; i++) {
+                int row = rows[i];
+                dates[i] = batch.getDate(row);
+                humidities[i] = batch.getHumidity(row);
+                pressures[i] = batch.getPressure(row);
+                windSpeeds[i] = batch.getWindSpeed(row);
+                degrees[i] = batch.getWindDirection(row);
+                highs[i] = batch.getHigh(row);
+                lows[i] = batch.getLow(row);
+                descriptions[i] = batch.getDescription(row);
+                weatherIds[i] = batch.getWeatherId(row);
+            }
+            Bundle bundle = new Bundle();
+            bundle.putLongArray(COLUMN_DATE, dates);
+            bundle.putIntArray(COLUMN_HUMIDITY, humidities);
+            bundle.putDoubleArray(COLUMN_PRESSURE, pressures);
+            bundle.putDoubleArray(COLUMN_WIND_SPEED, windSpeeds);
+            bundle.putDoubleArray(COLUMN_DEGREES, degrees);
+            bundle.putDoubleArray(COLUMN_MAX_TEMP, highs);
+            bundle.putDoubleArray(COLUMN_MIN_TEMP, lows);
+            bundle.putStringArray(COLUMN_SHORT_DESC, descriptions);
+            bundle.putIntArray(COLUMN_WEATHER_ID, weatherIds);
+            return bundle;
+        }
+
+        private static ContentValues toContentValues(long locationId, ForecastBatch batch,
+                                                     int row) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(COLUMN_LOC_KEY, locationId);
+            weatherValues.put(COLUMN_DATE, batch.getDate(row));
+            weatherValues.put(COLUMN_HUMIDITY, batch.getHumidity(row));
+            weatherValues.put(COLUMN_PRESSURE, batch.getPressure(row));
+            weatherValues.put(COLUMN_WIND_SPEED, batch.getWindSpeed(row));
+            weatherValues.put(COLUMN_DEGREES, batch.getWindDirection(row));
+            weatherValues.put(COLUMN_MAX_TEMP, batch.getHigh(row));
+            weatherValues.put(COLUMN_MIN_TEMP, batch.getLow(row));
+            weatherValues.put(COLUMN_SHORT_DESC, batch.getDescription(row));
+            weatherValues.put(COLUMN_WEATHER_ID, batch.getWeatherId(row));
+            return weatherValues;
+        }
+
+        /**
+         * The date, weather id, description, high and low of a few days, which is all the
+         * widgets, the notification, Muzei and the watch show, held in arrays.
+         */
+        public static final class Summary {
+            // The columns read, and the keys of their arrays in the Bundle
+            static final String[] COLUMNS = {
+                    COLUMN_DATE,
+                    COLUMN_WEATHER_ID,
+                    COLUMN_SHORT_DESC,
+                    COLUMN_MAX_TEMP,
+                    COLUMN_MIN_TEMP};
+
+            private final long[] mDates;
+            private final int[] mWeatherIds;
+            private final String[] mDescriptions;
+            private final double[] mHighs;
+            private final double[] mLows;
+
+            Summary(Bundle bundle) {
+                long[] dates = bundle != null ? bundle.getLongArray(COLUMN_DATE) : null;
+                if (dates == null) {
+                    // No provider to ask, or a provider without the method
+                    mDates = new long[0];
+                    mWeatherIds = new int[0];
+                    mDescriptions = new String[0];
+                    mHighs = new double[0];
+                    mLows = new double[0];
+                } else {
+                    mDates = dates;
+                    mWeatherIds = bundle.getIntArray(COLUMN_WEATHER_ID);
+                    mDescriptions = bundle.getStringArray(COLUMN_SHORT_DESC);
+                    mHighs = bundle.getDoubleArray(COLUMN_MAX_TEMP);
+                    mLows = bundle.getDoubleArray(COLUMN_MIN_TEMP);
+                }
+            }
+
+            /**
+             * @param cursor over {@link #COLUMNS}.
+             * @return the first {@code days} rows of the cursor as a Bundle of arrays.
+             */
+            static Bundle toBundle(Cursor cursor, int days) {
+                int size = Math.max(0, Math.min(days, cursor.getCount()));
+                long[] dates = new long[size];
+                int[] weatherIds = new int[size];
+                String[] descriptions = new String[size];
+                double[] highs = new double[size];
+                double[] lows = new double[size];
+                for (int i = 0; i < size && cursor.moveToNext(); i++) {
+                    dates[i] = cursor.getLong(0);
+                    weatherIds[i] = cursor.getInt(1);
+                    descriptions[i] = cursor.getString(2);
+                    highs[i] = cursor.getDouble(3);
+                    lows[i] = cursor.getDouble(4);
+                }
+                Bundle bundle = new Bundle();
+                bundle.putLongArray(COLUMN_DATE, dates);
+                bundle.putIntArray(COLUMN_WEATHER_ID, weatherIds);
+                bundle.putStringArray(COLUMN_SHORT_DESC, descriptions);
+                bundle.putDoubleArray(COLUMN_MAX_TEMP, highs);
+                bundle.putDoubleArray(COLUMN_MIN_TEMP, lows);
+                return bundle;
+            }
+
+            public int size() {
+                return mDates.length;
+            }
+
+            public long getDate(int day) {
+                return mDates[day];
+            }
+
+            public int getWeatherId(int day) {
+                return mWeatherIds[day];
+            }
+
+            public String getDescription(int day) {
+                return mDescriptions[day];
+            }
+
+            public double getHigh(int day) {
+                return mHighs[day];
+            }
+
+            public double getLow(int day) {
+                return mLows[day];
+            }
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly table, which holds the
+       3-hour steps of the 5 day forecast */
+    public static final class HourlyEntry implements BaseColumns {
+
+        // For inserts and deletes.  Queries for a location go through
+        // weather/<location>/hourly, see buildHourlyLocation.
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Query parameters bounding the time range of a location query
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the step, stored as long in milliseconds since the epoch.  Not normalized.
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Short description of the weather, as provided by API.
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Temperature at the time of the step (stored as float)
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity is stored as a float representing percentage
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
+        public static final String COLUMN_DEGREES = "degrees";
+        // Rain and snow over the 3 hours of the step, in mm.  0 when there is none.
+        public static final String COLUMN_PRECIPITATION = "precipitation";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        /**
+         * @return the uri to bulk insert the steps of a location through, replacing its stored
+         * steps that start before {@code startTime}.
+         */
+        public static Uri buildHourlyWindow(long locationId, long startTime) {
+            return buildWindowUri(CONTENT_URI, locationId, startTime);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_HOURLY).build();
+        }
+
+        /**
+         * @return the uri of the steps of a location that start in [startTime, endTime).
+         */
+        public static Uri buildHourlyLocationWithRange(
+                String locationSetting, long startTime, long endTime) {
+            return buildHourlyLocation(locationSetting).buildUpon()
+                    .appendQueryParameter(PARAM_START, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END, Long.toString(endTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String startString = uri.getQueryParameter(PARAM_START);
+            if (null != startString && startString.length() > 0)
+                return Long.parseLong(startString);
+            else
+                return 0;
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            String endString = uri.getQueryParameter(PARAM_END);
+            if (null != endString && endString.length() > 0)
+                return Long.parseLong(endString);
+            else
+                return Long.MAX_VALUE;
+        }
     }
 }
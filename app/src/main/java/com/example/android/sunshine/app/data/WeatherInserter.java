@@ -0,0 +1,170 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Inserts weather rows through one compiled statement, so a batch of rows pays for building
+ * and compiling the INSERT once rather than once per row.  The table replaces the stored row
+ * for the same location and date, so new and changed days take the same single statement,
+ * and each insert only reports whether the row was stored or rejected.  Rows can be bound
+ * from ContentValues or straight from primitives, as the sync hands them over.
+ *
+ * Not thread safe, and the caller owns the transaction.  {@link #close} must be called once
+ * the inserter is done with.
+ */
+class WeatherInserter {
+    static final int OUTCOME_FAILED = 0;
+    static final int OUTCOME_STORED = 1;
+
+    // The order of the placeholders in the INSERT
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID};
+    private static final int INDEX_DATE = 1;
+
+    private static final String SQL_INSERT;
+
+    static {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+                placeholders.append(',');
+            }
+            sql.append(COLUMNS[i]);
+            placeholders.append('?');
+        }
+        SQL_INSERT = sql.append(") VALUES (").append(placeholders).append(')').toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mInsert;
+    private final Time mTime = new Time();
+    private final int[] mCounts = new int[2];
+    private long mRowId = -1;
+
+    WeatherInserter(SQLiteDatabase db) {
+        mDb = db;
+        mInsert = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Stores one day of weather, replacing the stored day of the location with the same date.
+     * The values are bound as they are.  Like the provider's other inserts it writes the
+     * normalized date back into the values.  Rows with columns besides the ones the statement
+     * was compiled for are left to {@link SQLiteDatabase#insert}.
+     *
+     * @return one of the OUTCOME constants.
+     */
+    int insert(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            return count(OUTCOME_FAILED);
+        }
+        long normalizedDate = normalizeDate(date);
+        values.put(WeatherEntry.COLUMN_DATE, normalizedDate);
+
+        int bound = 0;
+        mInsert.clearBindings();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (values.containsKey(COLUMNS[i])) {
+                bound++;
+            }
+            // A missing column binds null, which the table rejects like SQLiteDatabase would
+            WeatherProvider.bind(mInsert, i + 1,
+                    i == INDEX_DATE ? normalizedDate : values.get(COLUMNS[i]));
+        }
+        if (bound == values.size()) {
+            return execute();
+        }
+
+        // Something the statement doesn't cover, such as an _id
+        mRowId = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        return count(mRowId != -1 ? OUTCOME_STORED : OUTCOME_FAILED);
+    }
+
+    /**
+     * Stores one day of weather from its values, with nothing boxed on the way.  Otherwise
+     * the same as {@link #insert(ContentValues)}.
+     *
+     * @return one of the OUTCOME constants.
+     */
+    int insert(long locationId, long date, int humidity, double pressure, double windSpeed,
+               double degrees, double high, double low, String description, int weatherId) {
+        if (description == null) {
+            // The table wants a description, and bindString doesn't take null
+            return count(OUTCOME_FAILED);
+        }
+        mInsert.bindLong(1, locationId);
+        mInsert.bindLong(2, normalizeDate(date));
+        mInsert.bindLong(3, humidity);
+        mInsert.bindDouble(4, pressure);
+        mInsert.bindDouble(5, windSpeed);
+        mInsert.bindDouble(6, degrees);
+        mInsert.bindDouble(7, high);
+        mInsert.bindDouble(8, low);
+        mInsert.bindString(9, description);
+        mInsert.bindLong(10, weatherId);
+        return execute();
+    }
+
+    /**
+     * @return the id of the row stored by the last insert, or -1 if it failed.
+     */
+    long getRowId() {
+        return mRowId;
+    }
+
+    /**
+     * @return how many inserts had the outcome so far.
+     */
+    int getCount(int outcome) {
+        return mCounts[outcome];
+    }
+
+    void close() {
+        mInsert.close();
+    }
+
+    private int execute() {
+        try {
+            mRowId = mInsert.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            // Only the statement is rolled back, the caller's transaction carries on
+            mRowId = -1;
+        }
+        return count(mRowId != -1 ? OUTCOME_STORED : OUTCOME_FAILED);
+    }
+
+    private int count(int outcome) {
+        if (outcome == OUTCOME_FAILED) {
+            mRowId = -1;
+        }
+        mCounts[outcome]++;
+        return outcome;
+    }
+
+    // WeatherContract.normalizeDate without a new Time for every row
+    private long normalizeDate(long date) {
+        mTime.set(date);
+        int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+        return mTime.setJulianDay(julianDay);
+    }
+}
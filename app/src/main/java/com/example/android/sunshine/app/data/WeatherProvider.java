@@ -17,12 +17,21 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,25 +39,45 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Uris changed by the applyBatch running on this thread, if any
+    private static final ThreadLocal<HashSet<Uri>> sBatchChanges = new ThreadLocal<>();
+    // The weather inserts of that applyBatch share one compiled statement, created on demand
+    private static final ThreadLocal<WeatherInserter> sBatchInserter = new ThreadLocal<>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_HOURLY = 103;
+    static final int HOURLY = 200;
     static final int LOCATION = 300;
+    static final int LOCATION_ID_WEATHER = 301;
+    static final int LOCATION_ID_WEATHER_AND_DATE = 302;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherWithLocationQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherWithLocationQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
+        sWeatherWithLocationQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -56,56 +85,171 @@ public class WeatherProvider extends ContentProvider {
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //location.location_setting = ? AND time >= ? AND time < ?
+    private static final String sLocationSettingWithTimeRangeSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    // The columns of the weather table, as they are named in projections
+    private static final HashSet<String> sWeatherColumns = new HashSet<>();
+
+    static {
+        String[] columns = {
+                WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                WeatherContract.WeatherEntry.COLUMN_DEGREES};
+        for (String column : columns) {
+            sWeatherColumns.add(column);
+            sWeatherColumns.add(WeatherContract.WeatherEntry.TABLE_NAME + "." + column);
+        }
+    }
+
+    private static final String sHourlyDefaultSortOrder =
+            WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
+
+    private static final String sWeatherDateSortOrder =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * A query as the provider runs it.  Building it is kept apart from running it so that
+     * the plan of every uri's query can be checked, see TestQueryPlans.
+     */
+    static final class Query {
+        final String sql;
+        final String[] selectionArgs;
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        Query(String sql, String[] selectionArgs) {
+            this.sql = sql;
+            this.selectionArgs = selectionArgs;
+        }
+    }
 
+    private static Query getWeatherByLocationId(
+            long locationId, long startDate, String[] projection, String sortOrder) {
         String[] selectionArgs;
         String selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{Long.toString(locationId)};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{Long.toString(locationId), Long.toString(startDate)};
+            selection = sLocationIdWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return getWeather(projection, selection, selectionArgs, sortOrder);
+    }
+
+    private static Query getWeatherByLocationIdAndDate(
+            long locationId, long date, String[] projection, String sortOrder) {
+        return getWeather(projection, sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Long.toString(date)}, sortOrder);
+    }
+
+    /**
+     * Reads the weather table alone when only its columns are asked for, and joins in the
+     * location table, through its primary key, when the projection needs it.
+     */
+    @SuppressWarnings("deprecation") // The replacement of buildQuery needs API 11
+    private static Query getWeather(String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        if (hasOnlyWeatherColumns(projection)) {
+            return getTable(WeatherContract.WeatherEntry.TABLE_NAME,
+                    projection, selection, selectionArgs, sortOrder);
+        }
+        return new Query(sWeatherWithLocationQueryBuilder.buildQuery(
                 projection,
                 selection,
-                selectionArgs,
                 null,
                 null,
-                sortOrder
-        );
+                null,
+                sortOrder,
+                null
+        ), selectionArgs);
+    }
+
+    /**
+     * @return the query that reads the days of a location from a start date into a
+     * {@link WeatherSnapshotCache.Snapshot}.
+     */
+    static Query getSnapshotQuery(long locationId, long startDate) {
+        return getWeather(WeatherSnapshotCache.COLUMNS, sLocationIdWithStartDateSelection,
+                new String[]{Long.toString(locationId), Long.toString(startDate)},
+                sWeatherDateSortOrder);
+    }
+
+    private static boolean hasOnlyWeatherColumns(String[] projection) {
+        if (projection == null) {
+            // All the columns of both tables
+            return false;
+        }
+        for (String column : projection) {
+            if (!sWeatherColumns.contains(column)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
+    @SuppressWarnings("deprecation")
+    private static Query getHourlyByLocationSetting(
             Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+        long endTime = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        // Both bounds are always given, so every query is a range scan of the
+        // (location_id, time) index
+        return new Query(sHourlyByLocationSettingQueryBuilder.buildQuery(
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                sLocationSettingWithTimeRangeSelection,
                 null,
                 null,
-                sortOrder
-        );
+                null,
+                sortOrder != null ? sortOrder : sHourlyDefaultSortOrder,
+                null
+        ), new String[]{locationSetting, Long.toString(startTime), Long.toString(endTime)});
+    }
+
+    private static Query getTable(String table, String[] projection, String selection,
+                                  String[] selectionArgs, String sortOrder) {
+        return new Query(SQLiteQueryBuilder.buildQueryString(
+                false,
+                table,
+                projection,
+                selection,
+                null,
+                null,
+                sortOrder,
+                null
+        ), selectionArgs);
     }
 
     /*
@@ -128,8 +272,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" + WeatherContract.PATH_HOURLY,
+                WEATHER_WITH_LOCATION_HOURLY);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#/" + WeatherContract.PATH_WEATHER,
+                LOCATION_ID_WEATHER);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#/" + WeatherContract.PATH_WEATHER + "/#",
+                LOCATION_ID_WEATHER_AND_DATE);
         return matcher;
     }
 
@@ -157,11 +309,16 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
+            case LOCATION_ID_WEATHER_AND_DATE:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
+            case LOCATION_ID_WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_HOURLY:
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
             default:
@@ -172,53 +329,229 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        Cursor retCursor = read(uri, projection, selection, selectionArgs, sortOrder);
+        // Changes are announced on the uri of the table that changed, see insert
+        Uri notificationUri;
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_HOURLY:
+                notificationUri = WeatherContract.HourlyEntry.CONTENT_URI;
+                break;
+            case LOCATION_ID_WEATHER:
+            case LOCATION_ID_WEATHER_AND_DATE:
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            default:
+                notificationUri = uri;
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        return retCursor;
+    }
+
+    /**
+     * Answers {@link WeatherContract#METHOD_GET_SUMMARY}.  The days are read as for
+     * {@link #query}, snapshots included, but only their values are handed back, with no
+     * cursor window to fill and no observer to register.  Stores the days of
+     * {@link WeatherContract#METHOD_WRITE_DAYS}, see {@link #writeDays}.
+     * <p>
+     * call() needs API 11, so it only carries what can't be said as well through the older
+     * methods, and every method has a fallback for API 10 in {@link WeatherContract}: the
+     * helpers that call it check the version first.  Operations that fit insert or
+     * bulkInsert, like the insert-or-get of a location or the window of a bulk insert, stay
+     * there and work the same on every version.
+     */
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_WRITE_DAYS.equals(method)) {
+            return writeDays(arg, extras);
+        }
+        if (!WeatherContract.METHOD_GET_SUMMARY.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (arg == null) {
+            throw new IllegalArgumentException("No uri to summarize");
+        }
+        Uri uri = Uri.parse(arg);
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case LOCATION_ID_WEATHER:
+            case LOCATION_ID_WEATHER_AND_DATE:
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        int days = extras != null ? extras.getInt(WeatherContract.EXTRA_DAYS, 1) : 1;
+        Cursor cursor = read(uri, WeatherContract.WeatherEntry.Summary.COLUMNS, null, null,
+                sWeatherDateSortOrder);
+        try {
+            return WeatherContract.WeatherEntry.Summary.toBundle(cursor, days);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores the days of a location, binding each value straight from its array, and prunes
+     * the location in the same transaction.  As with applyBatch, a day the table rejects rolls
+     * back the whole call, and observers are notified once it has committed.
+     */
+    private Bundle writeDays(String arg, Bundle days) {
+        long[] dates = days != null ? days.getLongArray(WeatherContract.WeatherEntry.COLUMN_DATE)
+                : null;
+        if (arg == null || dates == null) {
+            throw new IllegalArgumentException("No days to write for location " + arg);
+        }
+        long locationId = Long.parseLong(arg);
+        int[] humidities = days.getIntArray(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        double[] pressures = days.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        double[] windSpeeds = days.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        double[] degrees = days.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        double[] highs = days.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        double[] lows = days.getDoubleArray(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        String[] descriptions = days.getStringArray(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        int[] weatherIds = days.getIntArray(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsPruned = 0;
+        db.beginTransaction();
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            for (int i = 0; i < dates.length; i++) {
+                if (inserter.insert(locationId, dates[i], humidities[i], pressures[i],
+                        windSpeeds[i], degrees[i], highs[i], lows[i], descriptions[i],
+                        weatherIds[i]) == WeatherInserter.OUTCOME_FAILED) {
+                    throw new android.database.SQLException("Failed to insert row into "
+                            + WeatherContract.WeatherEntry.CONTENT_URI);
+                }
+            }
+            if (days.containsKey(WeatherContract.EXTRA_PRUNE_UP_TO)) {
+                rowsPruned = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(locationId), Long.toString(
+                                days.getLong(WeatherContract.EXTRA_PRUNE_UP_TO))});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        if (dates.length != 0 || rowsPruned != 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROWS_STORED, dates.length);
+        result.putInt(WeatherContract.EXTRA_ROWS_PRUNED, rowsPruned);
+        return result;
+    }
+
+    private Cursor read(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor cursor = querySnapshot(db, uri, projection, sortOrder);
+        if (cursor == null) {
+            Query query = buildQuery(db, uri, projection, selection, selectionArgs, sortOrder);
+            cursor = db.rawQuery(query.sql, query.selectionArgs);
+        }
+        return cursor;
+    }
+
+    /**
+     * Answers the queries for the days of a location from the {@link WeatherSnapshotCache},
+     * reading the days into it first if they aren't there.  A query the snapshots can't
+     * answer, because of its columns or its order, goes to the database as usual.
+     *
+     * @return the days, or null if the query isn't one for the cache.
+     */
+    private static Cursor querySnapshot(SQLiteDatabase db, Uri uri, String[] projection,
+                                        String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        if (match != WEATHER_WITH_LOCATION && match != WEATHER_WITH_LOCATION_AND_DATE
+                && match != LOCATION_ID_WEATHER && match != LOCATION_ID_WEATHER_AND_DATE) {
+            return null;
+        }
+        int[] columns = WeatherSnapshotCache.getColumns(projection);
+        if (columns == null || (sortOrder != null && !sortOrder.equals(sWeatherDateSortOrder))) {
+            return null;
+        }
+        boolean singleDay = match == WEATHER_WITH_LOCATION_AND_DATE
+                || match == LOCATION_ID_WEATHER_AND_DATE;
+        long date = singleDay
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        long locationId = match == LOCATION_ID_WEATHER || match == LOCATION_ID_WEATHER_AND_DATE
+                ? WeatherContract.WeatherEntry.getLocationIdFromUri(uri)
+                : resolveLocationId(db, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        if (locationId == -1) {
+            // No such location, and no days to hold
+            return null;
+        }
+
+        WeatherSnapshotCache.Snapshot snapshot = WeatherSnapshotCache.get(locationId, date);
+        if (snapshot == null) {
+            // A single day is read with the days after it, which the other readers ask for
+            long generation = WeatherSnapshotCache.getGeneration();
+            Query query = getSnapshotQuery(locationId, date);
+            Cursor cursor = db.rawQuery(query.sql, query.selectionArgs);
+            try {
+                snapshot = new WeatherSnapshotCache.Snapshot(date, cursor);
+            } finally {
+                cursor.close();
+            }
+            WeatherSnapshotCache.put(locationId, snapshot, generation);
+        }
+        return snapshot.query(columns, date, singleDay);
+    }
+
+    /**
+     * Builds the query behind a uri.  The location settings of weather uris are resolved to
+     * the ids of their rows in {@code db}, so those queries read the weather table by its
+     * location index, the same as for the location/[id]/weather uris.
+     */
+    static Query buildQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
-        Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
+                return getWeatherByLocationIdAndDate(
+                        resolveLocationId(db, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)),
+                        WeatherContract.WeatherEntry.getDateFromUri(uri), projection, sortOrder);
             // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
+            case WEATHER_WITH_LOCATION:
+                return getWeatherByLocationId(
+                        resolveLocationId(db, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)),
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri), projection, sortOrder);
+            // "location/#/weather/#"
+            case LOCATION_ID_WEATHER_AND_DATE:
+                return getWeatherByLocationIdAndDate(
+                        WeatherContract.WeatherEntry.getLocationIdFromUri(uri),
+                        WeatherContract.WeatherEntry.getDateFromUri(uri), projection, sortOrder);
+            // "location/#/weather"
+            case LOCATION_ID_WEATHER:
+                return getWeatherByLocationId(
+                        WeatherContract.WeatherEntry.getLocationIdFromUri(uri),
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri), projection, sortOrder);
             // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
+            case WEATHER:
+                return getTable(WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
+            // "weather/*/hourly"
+            case WEATHER_WITH_LOCATION_HOURLY:
+                return getHourlyByLocationSetting(uri, projection, sortOrder);
+            // "hourly"
+            case HOURLY:
+                return getTable(WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
             // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-
+            case LOCATION:
+                return getTable(WeatherContract.LocationEntry.TABLE_NAME,
+                        projection, selection, selectionArgs, sortOrder);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return retCursor;
     }
 
     /*
@@ -232,29 +565,104 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                if (sBatchChanges.get() != null) {
+                    WeatherInserter inserter = sBatchInserter.get();
+                    if (inserter == null) {
+                        inserter = new WeatherInserter(db);
+                        sBatchInserter.set(inserter);
+                    }
+                    inserter.insert(values);
+                    _id = inserter.getRowId();
+                } else {
+                    normalizeDate(values);
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                // Location settings are unique, so a location that is already stored is
+                // returned rather than added again.  Looking it up and adding it share a
+                // transaction, which makes this an atomic insert-or-get.  Being an insert, it
+                // needs no fallback for the versions without call().
+                String locationSetting = values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                long _id;
+                boolean inserted = false;
+                db.beginTransaction();
+                try {
+                    _id = locationSetting != null ? getLocationId(db, locationSetting) : -1;
+                    if (_id == -1) {
+                        _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                        inserted = true;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                if (!inserted) {
+                    // Nothing changed
+                    return returnUri;
+                }
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /**
+     * @return the id of the location row with the setting, from the {@link LocationIdCache}
+     * when it is there.  -1 if there is no such row, which matches no weather rows.
+     */
+    private static long resolveLocationId(SQLiteDatabase db, String locationSetting) {
+        long id = LocationIdCache.get(locationSetting);
+        if (id == -1) {
+            long generation = LocationIdCache.getGeneration();
+            id = getLocationId(db, locationSetting);
+            if (id != -1) {
+                LocationIdCache.put(locationSetting, id, generation);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the id of the location row with the setting, or -1 if there isn't one.
+     */
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -267,16 +675,23 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    LocationIdCache.invalidate();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -302,44 +717,208 @@ public class WeatherProvider extends ContentProvider {
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // The update may have changed a location setting
+                if (rowsUpdated != 0) {
+                    LocationIdCache.invalidate();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Inserts the rows in one transaction.  When the uri carries a window, see
+     * {@link WeatherContract.WeatherEntry#buildWeatherWindow}, the rows of the location from
+     * before the window are deleted in the same transaction, so observers never see the old
+     * and the new forecast side by side and are notified once for both.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final String table;
+        final String locationColumn;
+        final String timeColumn;
+        final Uri contentUri;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                table = WeatherContract.WeatherEntry.TABLE_NAME;
+                locationColumn = WeatherContract.WeatherEntry.COLUMN_LOC_KEY;
+                timeColumn = WeatherContract.WeatherEntry.COLUMN_DATE;
+                contentUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            case HOURLY:
+                table = WeatherContract.HourlyEntry.TABLE_NAME;
+                locationColumn = WeatherContract.HourlyEntry.COLUMN_LOC_KEY;
+                timeColumn = WeatherContract.HourlyEntry.COLUMN_TIME;
+                contentUri = WeatherContract.HourlyEntry.CONTENT_URI;
+                break;
             default:
                 return super.bulkInsert(uri, values);
         }
+        long windowLocation = WeatherContract.getWindowLocationFromUri(uri);
+
+        int returnCount;
+        int rowsDeleted = 0;
+        db.beginTransaction();
+        try {
+            if (match == WEATHER) {
+                returnCount = insertWeather(db, values);
+            } else {
+                returnCount = insertAll(db, table, values);
+            }
+            if (windowLocation != -1) {
+                rowsDeleted = db.delete(table,
+                        locationColumn + " = ? AND " + timeColumn + " < ?",
+                        new String[]{Long.toString(windowLocation),
+                                Long.toString(WeatherContract.getWindowStartFromUri(uri))});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (returnCount != 0 || rowsDeleted != 0) {
+            notifyChange(contentUri);
+        }
+        return returnCount;
+    }
+
+    private static int insertWeather(SQLiteDatabase db, ContentValues[] values) {
+        WeatherInserter inserter = new WeatherInserter(db);
+        try {
+            for (ContentValues value : values) {
+                inserter.insert(value);
+            }
+            return inserter.getCount(WeatherInserter.OUTCOME_STORED);
+        } finally {
+            inserter.close();
+        }
+    }
+
+    /**
+     * Inserts the rows reusing one compiled statement for all of them.  Sized for the hourly
+     * forecast, about 40 rows per location per sync, whose rows all have the columns of the
+     * first one.  The caller owns the transaction.
+     */
+    private static int insertAll(SQLiteDatabase db, String table, ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        // keySet() needs API 11
+        String[] columns = new String[values[0].size()];
+        int column = 0;
+        for (Map.Entry<String, Object> entry : values[0].valueSet()) {
+            columns[column++] = entry.getKey();
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+                placeholders.append(',');
+            }
+            sql.append(columns[i]);
+            placeholders.append('?');
+        }
+        sql.append(") VALUES (").append(placeholders).append(')');
+
+        int returnCount = 0;
+        SQLiteStatement insert = db.compileStatement(sql.toString());
+        try {
+            for (ContentValues value : values) {
+                if (value.size() != columns.length) {
+                    throw new IllegalArgumentException("Rows must all have the same columns");
+                }
+                insert.clearBindings();
+                for (int i = 0; i < columns.length; i++) {
+                    bind(insert, i + 1, value.get(columns[i]));
+                }
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                }
+            }
+        } finally {
+            insert.close();
+        }
+        return returnCount;
+    }
+
+    static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Applies the whole batch in one transaction, so a sync's inserts and the pruning of old
+     * rows for a location either all land or not at all.  Observers are told about each
+     * changed uri once, after the commit, rather than once per operation.  The weather inserts
+     * of the batch all go through one {@link WeatherInserter}.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final HashSet<Uri> changedUris = new HashSet<>();
+        sBatchChanges.set(changedUris);
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            WeatherInserter inserter = sBatchInserter.get();
+            if (inserter != null) {
+                inserter.close();
+                sBatchInserter.remove();
+            }
+            db.endTransaction();
+            sBatchChanges.remove();
+            if (successful) {
+                for (Uri uri : changedUris) {
+                    notifyChange(uri);
+                }
+            }
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        HashSet<Uri> batchChanges = sBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+        } else {
+            // The change is committed, readers from now on see it
+            final int match = sUriMatcher.match(uri);
+            if (match != HOURLY && match != WEATHER_WITH_LOCATION_HOURLY) {
+                WeatherSnapshotCache.invalidate();
+            }
+            // Merged with the other changes of the next moments, see NotificationBatcher
+            NotificationBatcher.notifyChange(getContext(), uri);
+        }
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
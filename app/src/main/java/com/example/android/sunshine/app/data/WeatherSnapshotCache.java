@@ -0,0 +1,226 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the upcoming days of the locations read last in memory, so the forecast list, the
+ * widgets, Muzei and the notification, which all read the preferred location's days after a
+ * sync, cost one read of the database between them rather than one each.
+ *
+ * Like {@link LocationIdCache} the cache is shared by the process of the
+ * {@link WeatherProvider}.  The provider clears it after every committed change to the weather
+ * or location tables, and {@link WeatherDbHelper} when the tables are created, so a snapshot
+ * never outlives the rows it was read from.
+ */
+public class WeatherSnapshotCache {
+    // A location with more days than this, a long history read from its first day, is read
+    // from the database every time rather than held
+    static final int MAX_ROWS = 32;
+    private static final int MAX_LOCATIONS = 4;
+
+    /**
+     * The columns a snapshot holds, in the order {@link Snapshot#Snapshot} reads them.
+     */
+    static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG};
+    private static final int INDEX_DATE = 2;
+    private static final int INDEX_FIRST_LOCATION_COLUMN = 11;
+
+    private static final int TYPE_LONG = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_STRING = 2;
+    // The storage class of each column, so the snapshot returns what the database would
+    private static final int[] TYPES = {
+            TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_LONG, TYPE_STRING,
+            TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE, TYPE_DOUBLE,
+            TYPE_STRING, TYPE_STRING, TYPE_DOUBLE, TYPE_DOUBLE};
+
+    // The names projections may give each column, and the names the database gives them back
+    private static final HashMap<String, Integer> sIndexes = new HashMap<>();
+    private static final String[] NAMES = new String[COLUMNS.length];
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            String column = COLUMNS[i];
+            String name = column.substring(column.indexOf('.') + 1);
+            String table = i < INDEX_FIRST_LOCATION_COLUMN
+                    ? WeatherEntry.TABLE_NAME : LocationEntry.TABLE_NAME;
+            NAMES[i] = name;
+            // A bare _id is ambiguous once the tables are joined, leave it to the database
+            if (!name.equals(WeatherEntry._ID)) {
+                sIndexes.put(name, i);
+            }
+            sIndexes.put(table + "." + name, i);
+        }
+    }
+
+    // By location id, the least recently read first
+    private static final LinkedHashMap<Long, Snapshot> sSnapshots =
+            new LinkedHashMap<Long, Snapshot>(MAX_LOCATIONS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+                    return size() > MAX_LOCATIONS;
+                }
+            };
+    // Bumped by every invalidation, see put
+    private static long sGeneration;
+    private static int sHits;
+    private static int sMisses;
+
+    /**
+     * The days of a location from a start date, as they were committed when they were read.
+     * Never changed once read, so it can be queried outside the cache's lock.
+     */
+    static final class Snapshot {
+        final long startDate;
+        private final Object[][] mRows;
+
+        /**
+         * Reads the rows of a cursor over {@link #COLUMNS}, in date order.
+         */
+        Snapshot(long startDate, Cursor cursor) {
+            this.startDate = startDate;
+            mRows = new Object[cursor.getCount()][];
+            int row = 0;
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[COLUMNS.length];
+                for (int i = 0; i < values.length; i++) {
+                    if (cursor.isNull(i)) {
+                        continue;
+                    }
+                    switch (TYPES[i]) {
+                        case TYPE_LONG:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case TYPE_DOUBLE:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        default:
+                            values[i] = cursor.getString(i);
+                    }
+                }
+                mRows[row++] = values;
+            }
+        }
+
+        int size() {
+            return mRows.length;
+        }
+
+        /**
+         * @param columns the indexes {@link #getColumns} gave for the projection.
+         * @param singleDay whether to return only the day of {@code date}, rather than the
+         *                  days from it.
+         */
+        Cursor query(int[] columns, long date, boolean singleDay) {
+            String[] names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                names[i] = NAMES[columns[i]];
+            }
+            MatrixCursor cursor = new MatrixCursor(names, singleDay ? 1 : mRows.length);
+            for (Object[] row : mRows) {
+                long rowDate = (Long) row[INDEX_DATE];
+                if (singleDay ? rowDate != date : rowDate < date) {
+                    continue;
+                }
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = row[columns[i]];
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+    }
+
+    /**
+     * @return the indexes in {@link #COLUMNS} of the columns of a projection, or null if it
+     * asks for anything a snapshot doesn't hold.
+     */
+    static int[] getColumns(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            Integer index = sIndexes.get(projection[i]);
+            if (index == null) {
+                return null;
+            }
+            columns[i] = index;
+        }
+        return columns;
+    }
+
+    /**
+     * @return the snapshot of the location that holds its days from {@code startDate}, or
+     * null if there isn't one.  Counted as a hit or a miss.
+     */
+    static synchronized Snapshot get(long locationId, long startDate) {
+        Snapshot snapshot = sSnapshots.get(locationId);
+        if (snapshot != null && snapshot.startDate <= startDate) {
+            sHits++;
+            return snapshot;
+        }
+        sMisses++;
+        return null;
+    }
+
+    /**
+     * @return a token to pass to {@link #put}, taken before reading the snapshot.
+     */
+    static synchronized long getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Holds a snapshot, unless the cache was invalidated since {@code generation} was taken,
+     * in which case a change may have been committed after the snapshot was read.
+     */
+    static synchronized void put(long locationId, Snapshot snapshot, long generation) {
+        if (generation == sGeneration && snapshot.size() <= MAX_ROWS) {
+            sSnapshots.put(locationId, snapshot);
+        }
+    }
+
+    static synchronized void invalidate() {
+        sSnapshots.clear();
+        sGeneration++;
+    }
+
+    /**
+     * @return how many queries were answered from memory so far.
+     */
+    public static synchronized int getHitCount() {
+        return sHits;
+    }
+
+    /**
+     * @return how many queries the cache could have answered but had to read first.
+     */
+    public static synchronized int getMissCount() {
+        return sMisses;
+    }
+}
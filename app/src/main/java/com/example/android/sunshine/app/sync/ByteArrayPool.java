@@ -0,0 +1,37 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of equally sized byte arrays, so the download buffers can be reused from one
+ * sync to the next instead of being allocated and collected every time.
+ */
+class ByteArrayPool {
+    static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED = 4;
+
+    private static final ByteArrayPool sInstance = new ByteArrayPool();
+
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<>(MAX_POOLED);
+
+    static ByteArrayPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return a buffer of {@link #BUFFER_SIZE} bytes.  Its contents are undefined.
+     */
+    synchronized byte[] acquire() {
+        byte[] buffer = mBuffers.pollFirst();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Hands a buffer back to the pool.  The caller must not touch it afterwards.
+     */
+    synchronized void release(byte[] buffer) {
+        if (buffer != null && buffer.length == BUFFER_SIZE && mBuffers.size() < MAX_POOLED) {
+            mBuffers.offerFirst(buffer);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stops us from talking to a host that keeps failing.
+ *
+ * After {@link #FAILURE_THRESHOLD} consecutive failures the breaker opens and requests to the
+ * host are refused without touching the radio.  Once the open period is over a single trial
+ * request is let through (half open).  If it succeeds the breaker closes, otherwise it opens
+ * again for twice as long, up to {@link #MAX_OPEN_MILLIS}.
+ *
+ * There is one breaker per host, shared by all the workers of a sync.  Its state is kept in
+ * shared preferences so it survives the process being killed between syncs, and so the UI can
+ * tell "the server is down" apart from "we stopped asking for a while".
+ */
+public class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final String PREFS_NAME = "circuit_breakers";
+    private static final String KEY_FAILURES = "failures:";
+    private static final String KEY_OPEN_UNTIL = "open_until:";
+    private static final String KEY_OPEN_MILLIS = "open_millis:";
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long MIN_OPEN_MILLIS = 5 * 60 * 1000;
+    static final long MAX_OPEN_MILLIS = 2 * 60 * 60 * 1000;
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    private static final Map<String, CircuitBreaker> sBreakers = new HashMap<>();
+    private static final Random sRandom = new Random();
+
+    private final SharedPreferences mPrefs;
+    private final String mHost;
+    private int mFailures;
+    private long mOpenUntil;
+    private long mOpenMillis;
+    private boolean mTrialInFlight;
+
+    @VisibleForTesting
+    CircuitBreaker(Context context, String host) {
+        mPrefs = getPreferences(context);
+        mHost = host;
+        mFailures = mPrefs.getInt(KEY_FAILURES + host, 0);
+        mOpenUntil = mPrefs.getLong(KEY_OPEN_UNTIL + host, 0);
+        mOpenMillis = mPrefs.getLong(KEY_OPEN_MILLIS + host, 0);
+    }
+
+    static CircuitBreaker forHost(Context context, String host) {
+        synchronized (sBreakers) {
+            CircuitBreaker breaker = sBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(context.getApplicationContext(), host);
+                sBreakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Closes every breaker and forgets their history.
+     */
+    @VisibleForTesting
+    static void resetAll(Context context) {
+        synchronized (sBreakers) {
+            sBreakers.clear();
+            getPreferences(context).edit().clear().commit();
+        }
+    }
+
+    /**
+     * @return whether a request to the host may go out now.  A true answer while half open
+     * reserves the single trial request, so it must be followed by {@link #recordSuccess},
+     * {@link #recordFailure} or {@link #recordCancelled}.
+     */
+    synchronized boolean allowRequest() {
+        return allowRequest(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized boolean allowRequest(long now) {
+        switch (getState(now)) {
+            case STATE_OPEN:
+                return false;
+            case STATE_HALF_OPEN:
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        mTrialInFlight = false;
+        if (mFailures == 0 && mOpenUntil == 0) {
+            return;
+        }
+        Log.d(LOG_TAG, "Closing breaker for " + mHost);
+        mFailures = 0;
+        mOpenUntil = 0;
+        mOpenMillis = 0;
+        save();
+    }
+
+    synchronized void recordFailure() {
+        recordFailure(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized void recordFailure(long now) {
+        boolean trial = mTrialInFlight;
+        mTrialInFlight = false;
+        mFailures++;
+        if (trial || (mOpenUntil == 0 && mFailures >= FAILURE_THRESHOLD)) {
+            mOpenMillis = mOpenMillis == 0
+                    ? MIN_OPEN_MILLIS : Math.min(MAX_OPEN_MILLIS, mOpenMillis * 2);
+            // Spread the reopening by up to a fifth so clients don't return in lockstep
+            long jitter;
+            synchronized (sRandom) {
+                jitter = (long) (sRandom.nextDouble() * mOpenMillis / 5);
+            }
+            mOpenUntil = now + mOpenMillis + jitter;
+            Log.d(LOG_TAG, "Opening breaker for " + mHost + " for " + (mOpenUntil - now) + "ms");
+        }
+        save();
+    }
+
+    /**
+     * Gives back the trial request reserved by {@link #allowRequest} when the request was
+     * abandoned, e.g. because the sync was cancelled.  That says nothing about the host, so
+     * the breaker stays as it was and the next request may be the trial.
+     */
+    synchronized void recordCancelled() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * @return how long, in milliseconds, until a trial request will be allowed, 0 if now.
+     */
+    synchronized long getRetryAfterMillis() {
+        return getRetryAfterMillis(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    synchronized long getRetryAfterMillis(long now) {
+        return Math.max(0, mOpenUntil - now);
+    }
+
+    private int getState(long now) {
+        if (mOpenUntil == 0) {
+            return STATE_CLOSED;
+        }
+        return now < mOpenUntil ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    private void save() {
+        mPrefs.edit()
+                .putInt(KEY_FAILURES + mHost, mFailures)
+                .putLong(KEY_OPEN_UNTIL + mHost, mOpenUntil)
+                .putLong(KEY_OPEN_MILLIS + mHost, mOpenMillis)
+                .apply();
+    }
+
+    /**
+     * @return the state of the breaker for the host, one of {@link #STATE_CLOSED},
+     * {@link #STATE_OPEN} or {@link #STATE_HALF_OPEN}.
+     */
+    public static int getState(Context context, String host) {
+        long openUntil = getPreferences(context).getLong(KEY_OPEN_UNTIL + host, 0);
+        if (openUntil == 0) {
+            return STATE_CLOSED;
+        }
+        return System.currentTimeMillis() < openUntil ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * @return the latest time, in milliseconds since the epoch, until which requests to any
+     * host are being held back, or 0 if every breaker is closed or ready for a trial.
+     */
+    public static long getOpenUntil(Context context) {
+        long now = System.currentTimeMillis();
+        long latest = 0;
+        for (Map.Entry<String, ?> entry : getPreferences(context).getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_OPEN_UNTIL) && entry.getValue() instanceof Long) {
+                long openUntil = (Long) entry.getValue();
+                if (openUntil > now && openUntil > latest) {
+                    latest = openUntil;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
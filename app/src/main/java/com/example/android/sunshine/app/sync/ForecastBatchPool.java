@@ -0,0 +1,39 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of {@link ForecastBatch}es, so the arrays the forecast days are collected in
+ * are kept from one sync to the next instead of being allocated and collected every time.
+ */
+class ForecastBatchPool {
+    private static final int MAX_POOLED = 4;
+
+    private static final ForecastBatchPool sInstance = new ForecastBatchPool();
+
+    private final ArrayDeque<ForecastBatch> mBatches = new ArrayDeque<>(MAX_POOLED);
+
+    static ForecastBatchPool getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return an empty batch.
+     */
+    synchronized ForecastBatch acquire() {
+        ForecastBatch batch = mBatches.pollFirst();
+        return batch != null ? batch : new ForecastBatch();
+    }
+
+    /**
+     * Hands a batch back to the pool.  The caller must not touch it afterwards.
+     */
+    synchronized void release(ForecastBatch batch) {
+        if (batch != null && mBatches.size() < MAX_POOLED) {
+            batch.clear();
+            mBatches.offerFirst(batch);
+        }
+    }
+}
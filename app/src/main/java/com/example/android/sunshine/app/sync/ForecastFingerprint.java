@@ -0,0 +1,168 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.core.ForecastBatch;
+
+import java.util.Arrays;
+
+/**
+ * A 64 bit digest of everything we store about one forecast day.  Comparing the digest of a
+ * freshly parsed day with the digest of the stored row tells us whether the row needs to be
+ * written at all, without keeping the old values around.
+ */
+final class ForecastFingerprint {
+
+    private static final String[] STORED_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_PRESSURE = 1;
+    private static final int INDEX_HUMIDITY = 2;
+    private static final int INDEX_WIND_SPEED = 3;
+    private static final int INDEX_DEGREES = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_MIN_TEMP = 6;
+    private static final int INDEX_SHORT_DESC = 7;
+    private static final int INDEX_WEATHER_ID = 8;
+
+    // 64 bit FNV-1a
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private ForecastFingerprint() {
+    }
+
+    static long of(ForecastBatch batch, int row) {
+        return of(batch.getPressure(row), batch.getHumidity(row), batch.getWindSpeed(row),
+                batch.getWindDirection(row), batch.getHigh(row), batch.getLow(row),
+                batch.getDescription(row), batch.getWeatherId(row));
+    }
+
+    /**
+     * SQLite stores REAL columns as IEEE doubles, so a value read back from the database hashes
+     * exactly like the parsed value it was written from.
+     */
+    static long of(double pressure, int humidity, double windSpeed, double windDirection,
+                   double high, double low, String description, int weatherId) {
+        long hash = OFFSET_BASIS;
+        hash = mix(hash, Double.doubleToLongBits(pressure));
+        hash = mix(hash, humidity);
+        hash = mix(hash, Double.doubleToLongBits(windSpeed));
+        hash = mix(hash, Double.doubleToLongBits(windDirection));
+        hash = mix(hash, Double.doubleToLongBits(high));
+        hash = mix(hash, Double.doubleToLongBits(low));
+        hash = mix(hash, weatherId);
+        if (description != null) {
+            for (int i = 0; i < description.length(); i++) {
+                hash = (hash ^ description.charAt(i)) * PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the fingerprints of the rows stored for the location, by their normalized date.
+     */
+    static Stored loadStored(ContentResolver resolver, long locationId) {
+        Stored fingerprints = new Stored();
+        Cursor cursor = resolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                STORED_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null);
+        if (cursor == null) {
+            return fingerprints;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                fingerprints.put(cursor.getLong(INDEX_DATE), of(
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getInt(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getString(INDEX_SHORT_DESC),
+                        cursor.getInt(INDEX_WEATHER_ID)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * The fingerprints of the stored rows of one location, by date.  A location holds a couple
+     * of weeks of rows at most, so they are kept in two small arrays and searched linearly,
+     * which beats boxing every date and fingerprint into a map.
+     */
+    static final class Stored {
+        private long[] mDates = new long[16];
+        private long[] mFingerprints = new long[16];
+        private int mSize;
+
+        /**
+         * @return whether a row is stored for the date with this fingerprint.
+         */
+        boolean matches(long date, long fingerprint) {
+            int index = indexOf(date);
+            return index != -1 && mFingerprints[index] == fingerprint;
+        }
+
+        void put(long date, long fingerprint) {
+            int index = indexOf(date);
+            if (index == -1) {
+                if (mSize == mDates.length) {
+                    mDates = Arrays.copyOf(mDates, mSize * 2);
+                    mFingerprints = Arrays.copyOf(mFingerprints, mSize * 2);
+                }
+                index = mSize++;
+                mDates[index] = date;
+            }
+            mFingerprints[index] = fingerprint;
+        }
+
+        /**
+         * @return whether any row is stored for the date or an earlier one.
+         */
+        boolean hasDatesUpTo(long date) {
+            for (int i = 0; i < mSize; i++) {
+                if (mDates[i] <= date) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int indexOf(long date) {
+            for (int i = 0; i < mSize; i++) {
+                if (mDates[i] == date) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
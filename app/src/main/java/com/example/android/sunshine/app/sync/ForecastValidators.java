@@ -0,0 +1,100 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The HTTP cache validators (ETag and Last-Modified) of the last forecast we stored for a
+ * location.  Sending them back lets the server answer with a bodyless 304 Not Modified when the
+ * forecast hasn't changed since the previous sync.
+ */
+class ForecastValidators {
+    private static final String PREFS_NAME = "forecast_validators";
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    final String eTag;
+    final String lastModified;
+
+    private ForecastValidators(String eTag, String lastModified) {
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the validators saved for the location, which may be empty.
+     */
+    static ForecastValidators load(Context context, String locationSetting) {
+        SharedPreferences prefs = getPreferences(context);
+        return new ForecastValidators(
+                prefs.getString(KEY_ETAG + locationSetting, null),
+                prefs.getString(KEY_LAST_MODIFIED + locationSetting, null));
+    }
+
+    /**
+     * @return the validators sent with a response, which may be empty.
+     */
+    static ForecastValidators fromResponse(HttpURLConnection urlConnection) {
+        return new ForecastValidators(
+                urlConnection.getHeaderField(HEADER_ETAG),
+                urlConnection.getHeaderField(HEADER_LAST_MODIFIED));
+    }
+
+    boolean isEmpty() {
+        return eTag == null && lastModified == null;
+    }
+
+    /**
+     * Turns the request into a conditional one.  Must be called before the connection is made.
+     */
+    void applyTo(HttpURLConnection urlConnection) {
+        if (eTag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+        }
+        if (lastModified != null) {
+            // The server's own date string is sent back untouched, so clock skew between us
+            // and the server doesn't matter.
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Remembers these validators for the location, replacing any previous ones.  Should only be
+     * called once the matching forecast is safely in the database.
+     */
+    void save(Context context, String locationSetting) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        if (eTag != null) {
+            editor.putString(KEY_ETAG + locationSetting, eTag);
+        } else {
+            editor.remove(KEY_ETAG + locationSetting);
+        }
+        if (lastModified != null) {
+            editor.putString(KEY_LAST_MODIFIED + locationSetting, lastModified);
+        } else {
+            editor.remove(KEY_LAST_MODIFIED + locationSetting);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets the validators of the location, e.g. once OWM stops knowing it.
+     */
+    static void clear(Context context, String locationSetting) {
+        getPreferences(context).edit()
+                .remove(KEY_ETAG + locationSetting)
+                .remove(KEY_LAST_MODIFIED + locationSetting)
+                .apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
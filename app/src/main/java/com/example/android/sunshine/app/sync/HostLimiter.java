@@ -0,0 +1,37 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of requests in flight to any one host, however many workers are fetching.
+ */
+class HostLimiter {
+    private final int mPermitsPerHost;
+    private final HashMap<String, Semaphore> mSemaphores = new HashMap<>();
+
+    HostLimiter(int permitsPerHost) {
+        mPermitsPerHost = permitsPerHost;
+    }
+
+    /**
+     * Blocks until a request to the host may start.  Every successful call must be matched
+     * by a call to {@link #release}.
+     */
+    void acquire(String host) throws InterruptedException {
+        getSemaphore(host).acquire();
+    }
+
+    void release(String host) {
+        getSemaphore(host).release();
+    }
+
+    private synchronized Semaphore getSemaphore(String host) {
+        Semaphore semaphore = mSemaphores.get(host);
+        if (semaphore == null) {
+            semaphore = new Semaphore(mPermitsPerHost, true);
+            mSemaphores.put(host, semaphore);
+        }
+        return semaphore;
+    }
+}
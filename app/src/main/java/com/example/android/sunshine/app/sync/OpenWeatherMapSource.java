@@ -0,0 +1,82 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches forecasts from the OpenWeatherMap daily and 5 day / 3 hour forecast APIs.
+ */
+public class OpenWeatherMapSource implements WeatherSource {
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+    static final String QUERY_PARAM = "q";
+    static final String FORMAT_PARAM = "mode";
+    static final String UNITS_PARAM = "units";
+    static final String DAYS_PARAM = "cnt";
+    static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+
+    private final String mBaseUrl;
+    private final String mHourlyBaseUrl;
+    private final String mApiKey;
+
+    public OpenWeatherMapSource() {
+        this(FORECAST_BASE_URL, HOURLY_FORECAST_BASE_URL, BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    /**
+     * @param baseUrl the daily forecast endpoint, for servers that mimic OWM.
+     * @param hourlyBaseUrl the 3 hour forecast endpoint.
+     */
+    public OpenWeatherMapSource(String baseUrl, String hourlyBaseUrl, String apiKey) {
+        mBaseUrl = baseUrl;
+        mHourlyBaseUrl = hourlyBaseUrl;
+        mApiKey = apiKey;
+    }
+
+    @Override
+    public HttpURLConnection openForecast(String locationQuery, int numDays) throws IOException {
+        // Construct the URL for the OpenWeatherMap query
+        Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+
+        return open(builtUri);
+    }
+
+    @Override
+    public HttpURLConnection openHourlyForecast(String locationQuery) throws IOException {
+        // The 3 hour forecast always covers 5 days, so there is no count to ask for
+        Uri builtUri = Uri.parse(mHourlyBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(APPID_PARAM, mApiKey)
+                .build();
+        return open(builtUri);
+    }
+
+    private static HttpURLConnection open(Uri builtUri) throws IOException {
+        URL url = new URL(builtUri.toString());
+
+        // Create the request to OpenWeatherMap
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        return urlConnection;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last stage of a sync: telling everybody who shows the weather that it changed.
+ *
+ * Publishers run concurrently on a small pool, after the sync that queued them has already
+ * returned, so a slow watch connection or artwork download doesn't hold up the sync or keep
+ * the SyncManager's wakelock.  Each publication holds a partial wakelock of its own instead,
+ * with a timeout in case it never returns.
+ *
+ * Publishers read whatever is in the database when they run, so one that is already queued
+ * isn't queued a second time, and the queue itself is bounded.
+ */
+class PublishStage {
+    private static final String LOG_TAG = PublishStage.class.getSimpleName();
+
+    static final int THREADS = 4;
+    static final int QUEUE_CAPACITY = 8;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final long WAKELOCK_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * Something that shows the weather and needs to hear about changes.
+     */
+    abstract static class Publisher {
+        final String name;
+
+        Publisher(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Called on a publishing thread.  May block.
+         */
+        abstract void publish();
+    }
+
+    private final PowerManager mPowerManager;
+    private final ThreadPoolExecutor mExecutor;
+    private final HashSet<String> mQueued = new HashSet<>();
+
+    PublishStage(Context context) {
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a publication and returns straight away.
+     */
+    void submit(final Publisher publisher) {
+        synchronized (mQueued) {
+            if (!mQueued.add(publisher.name)) {
+                return;
+            }
+        }
+
+        final PowerManager.WakeLock wakeLock = newWakeLock(publisher.name);
+        wakeLock.acquire(WAKELOCK_TIMEOUT_MILLIS);
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // From here on a new change needs a new publication
+                    synchronized (mQueued) {
+                        mQueued.remove(publisher.name);
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        publisher.publish();
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Error publishing to " + publisher.name, e);
+                    } finally {
+                        SyncMetrics.getInstance().recordSince(
+                                SyncMetrics.PHASE_PUBLISH + publisher.name, start);
+                        wakeLock.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(LOG_TAG, "Dropping publication to " + publisher.name, e);
+            SyncMetrics.getInstance().count(SyncMetrics.COUNTER_PUBLISH_DROPPED, 1);
+            synchronized (mQueued) {
+                mQueued.remove(publisher.name);
+            }
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * @return a new, unheld wakelock for a publication to the publisher.
+     */
+    @VisibleForTesting
+    PowerManager.WakeLock newWakeLock(String name) {
+        PowerManager.WakeLock wakeLock = mPowerManager.newWakeLock(
+                PowerManager.PARTIAL_WAKE_LOCK, "Sunshine:publish:" + name);
+        wakeLock.setReferenceCounted(false);
+        return wakeLock;
+    }
+}
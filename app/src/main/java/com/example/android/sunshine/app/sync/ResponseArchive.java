@@ -0,0 +1,478 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only archive of the forecast responses we parsed, as they came off the wire after
+ * decompression, so the database can be rebuilt without a network and the parsers can be
+ * benchmarked against real payloads.
+ *
+ * Records are appended to segment files of about {@link #SEGMENT_BYTES}.  When the archive
+ * grows past {@link #MAX_ARCHIVE_BYTES} the oldest segments are deleted, so it only ever holds
+ * the most recent responses.  Segments are read through memory maps.
+ *
+ * Each record is laid out as
+ * <pre>
+ *   int magic, byte kind, long fetchedAt, int locationLength, byte[] location (UTF-8),
+ *   int bodyLength, byte[] body, int crc32(body)
+ * </pre>
+ * in big-endian order.  A record cut short by a crash fails its checksum and ends the reading
+ * of its segment, which is never appended to again.
+ *
+ * A response being downloaded is archived through a {@link Capture}, which writes the body to
+ * a file of its own as it is read and appends it as a record only once it has been parsed and
+ * stored, so the body is never held in memory.
+ */
+public class ResponseArchive {
+    private static final String LOG_TAG = ResponseArchive.class.getSimpleName();
+
+    public static final int KIND_DAILY = 1;
+    public static final int KIND_HOURLY = 2;
+
+    static final int SEGMENT_BYTES = 256 * 1024;
+    static final int MAX_ARCHIVE_BYTES = 2 * 1024 * 1024;
+    // A 16 day forecast is about 8K, anything much bigger isn't a forecast we want
+    static final int MAX_RECORD_BYTES = 128 * 1024;
+
+    private static final String DIRECTORY = "response_archive";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CAPTURE_PREFIX = "capture";
+    private static final String CAPTURE_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x53554e31; // "SUN1"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ResponseArchive sInstance;
+
+    private final File mDirectory;
+    private File mCurrentSegment;
+    // Whether the captures left behind by an earlier process have been deleted
+    private boolean mStaleCapturesDeleted;
+
+    /**
+     * One archived response.  The body is a slice of the memory mapped segment.
+     */
+    public static final class Record {
+        public final int kind;
+        public final long fetchedAt;
+        public final String location;
+        private final ByteBuffer mBody;
+
+        Record(int kind, long fetchedAt, String location, ByteBuffer body) {
+            this.kind = kind;
+            this.fetchedAt = fetchedAt;
+            this.location = location;
+            mBody = body;
+        }
+
+        public int getBodyLength() {
+            return mBody.remaining();
+        }
+
+        /**
+         * @return a new reader over the body.  Can be called any number of times.
+         */
+        public Reader openReader() {
+            return new InputStreamReader(new ByteBufferInputStream(mBody.duplicate()), UTF_8);
+        }
+    }
+
+    public interface Visitor {
+        void visit(Record record);
+    }
+
+    /**
+     * A response being archived while it is read.  The body is written to a file of its own,
+     * which {@link #commit} appends to the archive and {@link #discard} deletes.  A body that
+     * grows past {@link #MAX_RECORD_BYTES} is discarded.  Failures are logged, the archive is
+     * only a convenience, so writing never throws.  Not thread safe.
+     */
+    public final class Capture {
+        private final int mKind;
+        private final String mLocation;
+        private final File mFile;
+        private OutputStream mOut;
+        private final CRC32 mCrc = new CRC32();
+        private int mLength;
+
+        Capture(int kind, String location, File file, OutputStream out) {
+            mKind = kind;
+            mLocation = location;
+            mFile = file;
+            mOut = out;
+        }
+
+        /**
+         * Adds decoded bytes of the body.
+         */
+        public void write(byte[] buffer, int offset, int count) {
+            if (mOut == null) {
+                return;
+            }
+            if (mLength + count > MAX_RECORD_BYTES) {
+                discard();
+                return;
+            }
+            try {
+                mOut.write(buffer, offset, count);
+                mCrc.update(buffer, offset, count);
+                mLength += count;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error capturing response for " + mLocation, e);
+                discard();
+            }
+        }
+
+        /**
+         * Appends the body written so far to the archive.  The capture is done with afterwards.
+         */
+        public void commit(long fetchedAt) {
+            if (mOut == null) {
+                return;
+            }
+            try {
+                mOut.close();
+                mOut = null;
+                InputStream body = new FileInputStream(mFile);
+                try {
+                    appendRecord(mKind, mLocation, fetchedAt, body, mLength,
+                            (int) mCrc.getValue());
+                } finally {
+                    body.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error archiving response for " + mLocation, e);
+            }
+            discard();
+        }
+
+        /**
+         * Forgets the body.  Does nothing once the capture is committed or discarded.
+         */
+        public void discard() {
+            if (mOut != null) {
+                try {
+                    mOut.close();
+                } catch (IOException e) {
+                    // Deleted anyway
+                }
+                mOut = null;
+            }
+            if (mFile != null && mFile.exists() && !mFile.delete()) {
+                Log.e(LOG_TAG, "Can't delete " + mFile);
+            }
+        }
+    }
+
+    public static synchronized ResponseArchive getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ResponseArchive(
+                    new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+        }
+        return sInstance;
+    }
+
+    ResponseArchive(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Appends a response.  Failures are logged, the archive is only a convenience.
+     *
+     * @param body the decoded response body, which should be UTF-8 JSON.
+     */
+    public synchronized void append(int kind, String location, long fetchedAt, byte[] body) {
+        if (body.length > MAX_RECORD_BYTES) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        try {
+            appendRecord(kind, location, fetchedAt, new ByteArrayInputStream(body), body.length,
+                    (int) crc.getValue());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error archiving response for " + location, e);
+        }
+    }
+
+    /**
+     * Starts archiving a response as it is read, see {@link Capture}.
+     *
+     * @param kind one of the KIND constants.
+     */
+    public synchronized Capture startCapture(int kind, String location) {
+        File file = null;
+        OutputStream out = null;
+        if (mDirectory.isDirectory() || mDirectory.mkdirs()) {
+            if (!mStaleCapturesDeleted) {
+                deleteCaptures();
+                mStaleCapturesDeleted = true;
+            }
+            try {
+                file = File.createTempFile(CAPTURE_PREFIX, CAPTURE_SUFFIX, mDirectory);
+                out = new FileOutputStream(file);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't capture response for " + location, e);
+            }
+        } else {
+            Log.e(LOG_TAG, "Can't create " + mDirectory);
+        }
+        // Without a file the capture simply drops what it is given
+        return new Capture(kind, location, file, out);
+    }
+
+    private synchronized void appendRecord(int kind, String location, long fetchedAt,
+                                           InputStream body, int length, int crc)
+            throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create " + mDirectory);
+            return;
+        }
+
+        // Every process starts a segment of its own, so a record torn by a crash is always the
+        // last of its segment and doesn't hide the ones appended after it
+        if (mCurrentSegment == null || mCurrentSegment.length() >= SEGMENT_BYTES) {
+            File[] segments = listSegments();
+            mCurrentSegment = new File(mDirectory, String.format(Locale.US, "%08d%s",
+                    segments.length > 0 ? segmentNumber(segments[segments.length - 1]) + 1 : 0,
+                    SEGMENT_SUFFIX));
+        }
+
+        byte[] locationBytes = location.getBytes(UTF_8);
+        byte[] buffer = ByteArrayPool.getInstance().acquire();
+        File segment = mCurrentSegment;
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(segment, true));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(kind);
+            out.writeLong(fetchedAt);
+            out.writeInt(locationBytes.length);
+            out.write(locationBytes);
+            out.writeInt(length);
+            int copied = 0;
+            int read;
+            while (copied < length
+                    && (read = body.read(buffer, 0, Math.min(buffer.length, length - copied)))
+                    != -1) {
+                out.write(buffer, 0, read);
+                copied += read;
+            }
+            if (copied < length) {
+                // The record is torn, so like after a crash the segment is left alone
+                mCurrentSegment = null;
+                throw new IOException("Body ended after " + copied + " of " + length + " bytes");
+            }
+            out.writeInt(crc);
+        } finally {
+            ByteArrayPool.getInstance().release(buffer);
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing " + segment, e);
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Visits every record, oldest first.
+     */
+    public synchronized void read(Visitor visitor) {
+        for (File segment : listSegments()) {
+            MappedByteBuffer buffer;
+            try {
+                buffer = map(segment);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error mapping " + segment, e);
+                continue;
+            }
+            readSegment(segment, buffer, visitor);
+        }
+    }
+
+    /**
+     * @return the size of all the segments, in bytes.
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (File segment : listSegments()) {
+            size += segment.length();
+        }
+        return size;
+    }
+
+    public synchronized void clear() {
+        for (File segment : listSegments()) {
+            if (!segment.delete()) {
+                Log.e(LOG_TAG, "Can't delete " + segment);
+            }
+        }
+        mCurrentSegment = null;
+    }
+
+    private void deleteCaptures() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(CAPTURE_PREFIX)
+                    && file.getName().endsWith(CAPTURE_SUFFIX) && !file.delete()) {
+                Log.e(LOG_TAG, "Can't delete " + file);
+            }
+        }
+    }
+
+    private static void readSegment(File segment, ByteBuffer buffer, Visitor visitor) {
+        CRC32 crc = new CRC32();
+        byte[] crcBuffer = new byte[ByteArrayPool.BUFFER_SIZE];
+        try {
+            while (buffer.hasRemaining()) {
+                if (buffer.getInt() != MAGIC) {
+                    Log.w(LOG_TAG, "Bad record in " + segment + " at " + (buffer.position() - 4));
+                    return;
+                }
+                int kind = buffer.get();
+                long fetchedAt = buffer.getLong();
+                int locationLength = buffer.getInt();
+                if (locationLength < 0 || locationLength > buffer.remaining()) {
+                    Log.w(LOG_TAG, "Truncated record in " + segment);
+                    return;
+                }
+                byte[] locationBytes = new byte[locationLength];
+                buffer.get(locationBytes);
+                int bodyLength = buffer.getInt();
+                if (bodyLength < 0 || bodyLength > buffer.remaining()) {
+                    Log.w(LOG_TAG, "Truncated record in " + segment);
+                    return;
+                }
+
+                ByteBuffer body = buffer.slice();
+                body.limit(bodyLength);
+                crc.reset();
+                for (int offset = 0; offset < bodyLength; offset += crcBuffer.length) {
+                    int length = Math.min(crcBuffer.length, bodyLength - offset);
+                    buffer.get(crcBuffer, 0, length);
+                    crc.update(crcBuffer, 0, length);
+                }
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    Log.w(LOG_TAG, "Corrupt record in " + segment);
+                    return;
+                }
+                visitor.visit(new Record(kind, fetchedAt, new String(locationBytes, UTF_8), body));
+            }
+        } catch (BufferUnderflowException e) {
+            // The last record was cut short, e.g. by a crash while appending
+            Log.w(LOG_TAG, "Truncated record in " + segment);
+        }
+    }
+
+    private static MappedByteBuffer map(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            // The mapping stays valid after the file is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private void evict() {
+        File[] segments = listSegments();
+        long size = 0;
+        for (File segment : segments) {
+            size += segment.length();
+        }
+        // Never evict the segment being appended to
+        for (int i = 0; i < segments.length - 1 && size > MAX_ARCHIVE_BYTES; i++) {
+            size -= segments[i].length();
+            if (!segments[i].delete()) {
+                Log.e(LOG_TAG, "Can't delete " + segments[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the segments, oldest first.
+     */
+    private File[] listSegments() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_SUFFIX) && segmentNumber(file) >= 0) {
+                files[count++] = file;
+            }
+        }
+        File[] segments = Arrays.copyOf(files, count);
+        // The names are zero padded, so they sort in the order they were created
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads a ByteBuffer, e.g. a slice of a mapped segment, without copying it to the heap
+     * first.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if (count == 0) {
+                return 0;
+            }
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(count, mBuffer.remaining());
+            mBuffer.get(buffer, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayDeque;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Negotiates a compressed response and turns the body back into characters.
+ *
+ * HttpURLConnection only unzips transparently when it added the Accept-Encoding header itself,
+ * and then it hides how many bytes actually crossed the network.  We ask for compression
+ * ourselves so we can count both sides of the decoder, and decode the characters from a pooled
+ * buffer with a pooled decoder, so no new buffers are needed per download.
+ */
+class ResponseDecoder {
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String CHARSET_PARAM = "charset=";
+    private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+    private static final int MAX_POOLED_DECODERS = 4;
+
+    // Decoders of the default charset, reused like the byte buffers
+    private static final ArrayDeque<CharsetDecoder> sDecoders =
+            new ArrayDeque<>(MAX_POOLED_DECODERS);
+
+    private CountingInputStream mWire;
+    private CountingInputStream mDecoded;
+    // where the decoded body is archived as it is read, if anywhere
+    private ResponseArchive.Capture mCapture;
+
+    /**
+     * Must be called before the connection is made.
+     */
+    static void requestCompression(HttpURLConnection urlConnection) {
+        urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING,
+                ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+    }
+
+    /**
+     * Hands the decoded body to the capture as it is read, for the {@link ResponseArchive}.
+     * Must be called before {@link #open}.  The capture is discarded when the reader is closed,
+     * unless it was committed before.
+     */
+    void capture(ResponseArchive.Capture capture) {
+        mCapture = capture;
+    }
+
+    /**
+     * @return a reader over the decoded response body.  Closing it releases the pooled buffer
+     * and decoder and records the bytes transferred in {@link TransferStats}.
+     */
+    Reader open(HttpURLConnection urlConnection) throws IOException {
+        try {
+            mWire = new CountingInputStream(urlConnection.getInputStream());
+        } catch (IOException e) {
+            if (mCapture != null) {
+                mCapture.discard();
+            }
+            throw e;
+        }
+
+        InputStream body;
+        String encoding = urlConnection.getContentEncoding();
+        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
+            body = new GZIPInputStream(mWire);
+        } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+            body = openDeflate(mWire);
+        } else {
+            body = mWire;
+        }
+        mDecoded = new CountingInputStream(body);
+
+        return new PooledReader(mDecoded, getCharset(urlConnection.getContentType()));
+    }
+
+    /**
+     * "deflate" is meant to be a zlib stream, but some servers send the raw deflate data
+     * without the zlib header and checksum, which a default {@link Inflater} rejects.  The
+     * first two bytes tell them apart: a zlib header names the deflate method and is a
+     * multiple of 31.
+     */
+    private static InputStream openDeflate(InputStream in) throws IOException {
+        PushbackInputStream peek = new PushbackInputStream(in, 2);
+        byte[] header = new byte[2];
+        int read = 0;
+        while (read < header.length) {
+            int count = peek.read(header, read, header.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        peek.unread(header, 0, read);
+
+        boolean zlib = read == header.length
+                && (header[0] & 0x0f) == 8
+                && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(peek, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // An inflater we pass in isn't ended by the stream
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    long getWireBytes() {
+        return mWire != null ? mWire.getCount() : 0;
+    }
+
+    long getDecodedBytes() {
+        return mDecoded != null ? mDecoded.getCount() : 0;
+    }
+
+    /**
+     * @return the time spent blocked on the network while reading the body, which doesn't
+     * include decompression.
+     */
+    long getWireReadNanos() {
+        return mWire != null ? mWire.getReadNanos() : 0;
+    }
+
+    private static Charset getCharset(String contentType) {
+        if (contentType != null) {
+            int index = contentType.toLowerCase().indexOf(CHARSET_PARAM);
+            if (index != -1) {
+                String name = contentType.substring(index + CHARSET_PARAM.length()).trim();
+                int end = name.indexOf(';');
+                if (end != -1) {
+                    name = name.substring(0, end).trim();
+                }
+                try {
+                    return Charset.forName(name.replace("\"", ""));
+                } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                    // fall through to the default, JSON is UTF-8 anyway
+                }
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    private static CharsetDecoder acquireDecoder(Charset charset) {
+        CharsetDecoder decoder = null;
+        if (charset.equals(DEFAULT_CHARSET)) {
+            synchronized (sDecoders) {
+                decoder = sDecoders.pollFirst();
+            }
+        }
+        if (decoder == null) {
+            decoder = charset.newDecoder();
+        }
+        // Like InputStreamReader, bad input is replaced rather than rejected
+        return decoder.reset()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    private static void releaseDecoder(CharsetDecoder decoder) {
+        if (decoder.charset().equals(DEFAULT_CHARSET)) {
+            synchronized (sDecoders) {
+                if (sDecoders.size() < MAX_POOLED_DECODERS) {
+                    sDecoders.offerFirst(decoder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the body from a byte buffer borrowed from the {@link ByteArrayPool} straight into
+     * the chars the caller asks for.  An InputStreamReader would put a byte buffer of its own
+     * between the two, allocated per download.
+     */
+    private class PooledReader extends Reader {
+        private final InputStream mIn;
+        private final CharsetDecoder mDecoder;
+        private byte[] mBuffer = ByteArrayPool.getInstance().acquire();
+        // The undecoded bytes of mBuffer, ready to be read from
+        private final ByteBuffer mBytes = ByteBuffer.wrap(mBuffer);
+        private CharBuffer mChars;
+        private boolean mEndOfInput;
+        private boolean mFlushed;
+        // A char can't be decoded alone if it is half of a surrogate pair, so single chars are
+        // decoded in pairs and the second one is kept for the next read
+        private final char[] mPair = new char[2];
+        private int mPairPosition;
+        private int mPairLimit;
+        private final char[] mOne = new char[1];
+
+        PooledReader(InputStream in, Charset charset) {
+            mIn = in;
+            mDecoder = acquireDecoder(charset);
+            mBytes.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(mOne, 0, 1) == -1 ? -1 : mOne[0];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            if (mBuffer == null) {
+                throw new IOException("Reader closed");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (mPairPosition < mPairLimit) {
+                buffer[offset] = mPair[mPairPosition++];
+                return 1;
+            }
+            if (count == 1) {
+                int read = decode(mPair, 0, mPair.length);
+                if (read == -1) {
+                    return -1;
+                }
+                buffer[offset] = mPair[0];
+                mPairPosition = 1;
+                mPairLimit = read;
+                return 1;
+            }
+            return decode(buffer, offset, count);
+        }
+
+        /**
+         * Decodes what is buffered, and reads from the stream only when nothing could be.
+         */
+        private int decode(char[] buffer, int offset, int count) throws IOException {
+            if (mFlushed) {
+                return -1;
+            }
+            // The caller usually reads into the same array, whose wrapper is kept
+            if (mChars == null || mChars.array() != buffer) {
+                mChars = CharBuffer.wrap(buffer);
+            }
+            mChars.clear();
+            mChars.limit(offset + count);
+            mChars.position(offset);
+            while (true) {
+                CoderResult result = mDecoder.decode(mBytes, mChars, mEndOfInput);
+                if (result.isOverflow() || mChars.position() > offset) {
+                    break;
+                }
+                if (mEndOfInput) {
+                    mFlushed = mDecoder.flush(mChars).isUnderflow();
+                    break;
+                }
+                fill();
+            }
+            int read = mChars.position() - offset;
+            return read == 0 && mFlushed ? -1 : read;
+        }
+
+        private void fill() throws IOException {
+            // What the decoder left is the start of a char, kept ahead of the new bytes
+            mBytes.compact();
+            int position = mBytes.position();
+            int read = mIn.read(mBuffer, position, mBytes.remaining());
+            if (read == -1) {
+                mEndOfInput = true;
+            } else {
+                mBytes.position(position + read);
+                if (mCapture != null) {
+                    mCapture.write(mBuffer, position, read);
+                }
+            }
+            mBytes.flip();
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            return mBuffer != null && (mPairPosition < mPairLimit || mBytes.hasRemaining()
+                    || mIn.available() > 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer == null) {
+                return;
+            }
+            ByteArrayPool.getInstance().release(mBuffer);
+            mBuffer = null;
+            releaseDecoder(mDecoder);
+            TransferStats.record(getWireBytes(), getDecodedBytes());
+            if (mCapture != null) {
+                mCapture.discard();
+            }
+            mIn.close();
+        }
+    }
+}
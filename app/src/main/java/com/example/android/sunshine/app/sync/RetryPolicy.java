@@ -0,0 +1,39 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * How often, and after how long, a failed forecast request is tried again within one sync.
+ *
+ * Delays grow exponentially and are drawn uniformly between zero and the exponential bound
+ * ("full jitter"), so the workers of an all-locations sync, and the phones of everybody
+ * hitting the same outage, don't all come back at the same moment.
+ */
+class RetryPolicy {
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_DELAY_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 16 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * @param attempt the number of the attempt that just failed, starting at 0.
+     */
+    static boolean shouldRetry(int attempt) {
+        return attempt + 1 < MAX_ATTEMPTS;
+    }
+
+    /**
+     * @param attempt the number of the attempt that just failed, starting at 0.
+     * @return how long to wait before the next attempt.
+     */
+    static long getDelayMillis(int attempt) {
+        long bound = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt, 30));
+        synchronized (sRandom) {
+            return (long) (sRandom.nextDouble() * bound);
+        }
+    }
+}
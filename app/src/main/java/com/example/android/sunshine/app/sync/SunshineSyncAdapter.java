@@ -12,6 +12,7 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,20 +23,25 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
+import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.core.ForecastBatch;
+import com.example.android.sunshine.core.ForecastParser;
+import com.example.android.sunshine.core.HourlyForecastParser;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -45,27 +51,28 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Date;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Default interval at which to sync with the weather, in seconds.  SyncScheduler adjusts
+    // the actual interval around it.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
@@ -78,19 +85,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     private static final String DATA_WEATHER_KEY = "com.watchface.key.weather";
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -101,8 +95,37 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    /**
+     * Sync extra asking for every location in the location table to be refreshed, instead of
+     * just the preferred one.
+     */
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sunshine_all_locations";
+    // Asks for the forecasts to be rebuilt from the response archive instead of the network
+    public static final String SYNC_EXTRAS_REPLAY = "sunshine_replay";
+
+    // Bounds for the all-locations sync.  OWM is the only host we talk to, so in practice the
+    // per host limit is what caps the number of requests in flight.
+    private static final int MAX_LOCATION_WORKERS = 4;
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+    private static final HostLimiter sHostLimiter = new HostLimiter(MAX_REQUESTS_PER_HOST);
+
+    private static SyncHttpClient sHttpClient = new SyncHttpClient();
+
+    private static WeatherSource sWeatherSource = new OpenWeatherMapSource();
+
+    private static final SyncMetrics sMetrics = SyncMetrics.getInstance();
+
+    // The 3 hour forecast covers 5 days
+    private static final int HOURLY_STEPS = 40;
+
+    // How long the wear publisher waits for Play Services and for the watch
+    private static final long WEAR_TIMEOUT_SECONDS = 30;
+
+    private final PublishStage mPublishStage;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mPublishStage = new PublishStage(context);
     }
 
     GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(getContext())
@@ -129,174 +152,627 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
+        SyncRequestCoalescer.getInstance().onSyncStarted(extras);
+        sHttpClient.reset();
+        long start = System.nanoTime();
+        try {
+            performSync(extras, syncResult);
+        } finally {
+            sMetrics.recordSince(SyncMetrics.PHASE_SYNC, start);
+            SyncRequestCoalescer.getInstance().onSyncFinished(getContext());
+        }
+    }
 
-        mGoogleApiClient.connect();
+    @Override
+    public void onSyncCanceled() {
+        // Aborts the sockets the workers are blocked on, which blocking reads need.  This
+        // marks the sync as cancelled first, as the workers see their IOException before the
+        // interrupt below reaches them.
+        sHttpClient.cancelAll();
+        // Interrupts the sync thread, which stops the workers of an all-locations sync
+        super.onSyncCanceled();
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    /**
+     * Runs the fetch, parse and persist stages for the requested locations, then hands the
+     * results to the publish stage.  Fetching and parsing share the network thread, since the
+     * forecast is parsed as it streams in, and parsed days reach the database through the
+     * ForecastWriter's bounded buffer.  Publishing happens after we return, see
+     * {@link PublishStage}.
+     */
+    private void performSync(Bundle extras, SyncResult syncResult) {
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+
+        boolean replay = extras.getBoolean(SYNC_EXTRAS_REPLAY, false);
+        int changed;
+        if (replay) {
+            changed = replayArchive(preferredLocation, syncResult);
+        } else if (extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            changed = syncAllLocations(preferredLocation, syncResult);
+        } else {
+            changed = syncLocation(preferredLocation, true, syncResult);
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        // Everything downstream shows the preferred location, so it is only woken when that
+        // forecast changed.  The watch asks for a manual sync when it wants the weather, so it
+        // gets an answer even if nothing changed.
+        if (changed > 0 || extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false)) {
+            mPublishStage.submit(mWearPublisher);
+        }
+        if (changed > 0) {
+            mPublishStage.submit(mWidgetPublisher);
+            mPublishStage.submit(mMuzeiPublisher);
+            mPublishStage.submit(mNotificationPublisher);
+        }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        // A replay fetched nothing, so it says nothing about when to fetch next
+        if (!replay) {
+            SyncScheduler.onSyncFinished(getContext(),
+                    Utility.getLocationStatus(getContext()) == LOCATION_STATUS_OK, changed > 0);
+        }
+    }
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+    private final PublishStage.Publisher mWearPublisher = new PublishStage.Publisher("wear") {
+        @Override
+        void publish() {
+            updateWearable();
+        }
+    };
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+    private final PublishStage.Publisher mWidgetPublisher = new PublishStage.Publisher("widgets") {
+        @Override
+        void publish() {
+            updateWidgets();
+        }
+    };
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
+    private final PublishStage.Publisher mMuzeiPublisher = new PublishStage.Publisher("muzei") {
+        @Override
+        void publish() {
+            updateMuzei();
+        }
+    };
+
+    private final PublishStage.Publisher mNotificationPublisher =
+            new PublishStage.Publisher("notification") {
+                @Override
+                void publish() {
+                    notifyWeather();
+                }
+            };
+
+    /**
+     * Refreshes every location in the location table, plus the preferred one if it isn't there
+     * yet.  Locations are fetched by a small pool of workers, and each location's forecast is
+     * committed in its own transaction, so one failing city doesn't hold back the others.
+     *
+     * @return the number of weather rows written for the preferred location.
+     */
+    private int syncAllLocations(final String preferredLocation, final SyncResult syncResult) {
+        List<String> locations = getStoredLocationSettings();
+        if (!locations.contains(preferredLocation)) {
+            locations.add(0, preferredLocation);
+        }
+        Log.d(LOG_TAG, "Syncing " + locations.size() + " locations");
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(MAX_LOCATION_WORKERS, locations.size()));
+        List<Future<Integer>> results = new ArrayList<>(locations.size());
+        for (final String location : locations) {
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return syncLocation(location, location.equals(preferredLocation),
+                            syncResult);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int changed = 0;
+        int preferredChanged = 0;
+        try {
+            for (int i = 0; i < results.size(); i++) {
                 try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+                    int locationChanged = results.get(i).get();
+                    changed += locationChanged;
+                    if (locations.get(i).equals(preferredLocation)) {
+                        preferredChanged = locationChanged;
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing location", e.getCause());
                 }
             }
+        } catch (InterruptedException e) {
+            // The sync was cancelled, don't leave the workers running behind our back
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
-        return;
+        Log.d(LOG_TAG, changed + " rows changed across " + locations.size() + " locations");
+        return preferredChanged;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return the location settings of all the rows in the location table.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    private List<String> getStoredLocationSettings() {
+        List<String> locations = new ArrayList<>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locations.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        return locations;
+    }
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    /**
+     * Fetches the forecast for a single location and stores it.  Transient failures are
+     * retried according to the {@link RetryPolicy}, unless the {@link CircuitBreaker} of the
+     * host has given up on it for now.
+     *
+     * @param locationQuery the location setting to send to OWM.
+     * @param preferred whether this is the user's preferred location, in which case the location
+     *                  status is updated.
+     * @param syncResult where the outcome is reported to the SyncManager.  Shared by the
+     *                   workers of an all-locations sync, so only touched while holding its lock.
+     * @return the number of weather rows written, which is zero when the forecast hasn't changed.
+     */
+    private int syncLocation(String locationQuery, boolean preferred, SyncResult syncResult) {
+        int numDays = 14;
 
-        // These are the names of the JSON objects that need to be extracted.
+        for (int attempt = 0; ; attempt++) {
+            HttpURLConnection urlConnection;
+            try {
+                urlConnection = sWeatherSource.openForecast(locationQuery, numDays);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error ", e);
+                setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                return 0;
+            }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+            String host = urlConnection.getURL().getHost();
+            CircuitBreaker breaker = CircuitBreaker.forHost(getContext(), host);
+            if (!breaker.allowRequest()) {
+                // Don't waste the radio on a host that is down.  Telling the SyncManager when
+                // to come back keeps it from retrying any sooner.
+                long retryAt = System.currentTimeMillis() + breaker.getRetryAfterMillis();
+                Log.d(LOG_TAG, "Not fetching " + locationQuery + ", " + host + " is failing");
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_BREAKER_OPEN);
+                synchronized (syncResult) {
+                    syncResult.delayUntil = Math.max(syncResult.delayUntil, retryAt / 1000);
+                }
+                setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                return 0;
+            }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+            try {
+                int changed = fetchForecast(urlConnection, locationQuery, preferred, syncResult);
+                breaker.recordSuccess();
+                synchronized (syncResult) {
+                    syncResult.stats.numInserts += changed;
+                }
+                // The daily forecast got through, so the host is up for the hourly one too
+                if (!sHttpClient.isCancelled() && !Thread.currentThread().isInterrupted()) {
+                    syncHourlyForecast(locationQuery);
+                }
+                return changed;
+            } catch (IOException e) {
+                if (sHttpClient.isCancelled()) {
+                    // Aborted by onSyncCanceled, which says nothing about the server
+                    sMetrics.countOutcome(SyncMetrics.OUTCOME_CANCELLED);
+                    breaker.recordCancelled();
+                    return 0;
+                }
+                // This includes an empty stream, which the parser reports as an EOFException.
+                Log.e(LOG_TAG, "Error ", e);
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_IO_ERROR);
+                breaker.recordFailure();
+                if (!RetryPolicy.shouldRetry(attempt)) {
+                    // If the code didn't successfully get the weather data, there's no point in
+                    // attempting to parse it.  The IO exception makes the SyncManager back off.
+                    synchronized (syncResult) {
+                        syncResult.stats.numIoExceptions++;
+                    }
+                    setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                    return 0;
+                }
+            } catch (InterruptedException e) {
+                // Cancelled while waiting for the host, leave the status alone
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_CANCELLED);
+                breaker.recordCancelled();
+                Thread.currentThread().interrupt();
+                return 0;
+            }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+            try {
+                Thread.sleep(RetryPolicy.getDelayMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+    }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    /**
+     * Makes a single attempt at fetching and storing the forecast of a location.
+     *
+     * @throws IOException if the request failed in a way that is worth retrying, including
+     * server errors.
+     */
+    private int fetchForecast(HttpURLConnection urlConnection, String locationQuery,
+                              boolean preferred, SyncResult syncResult)
+            throws IOException, InterruptedException {
+        // These need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        Reader reader = null;
+        boolean completed = false;
+        String host = urlConnection.getURL().getHost();
+        int changed = 0;
+
+        // Wait for our turn with this host
+        sHostLimiter.acquire(host);
+        sHttpClient.begin(urlConnection);
+        try {
+            // Only ask for a conditional response if we still have the forecast it would
+            // validate, otherwise a 304 would leave us with an empty database.
+            ForecastValidators validators = ForecastValidators.load(getContext(), locationQuery);
+            if (!validators.isEmpty() && hasForecastForToday(locationQuery)) {
+                validators.applyTo(urlConnection);
+            }
+            ResponseDecoder.requestCompression(urlConnection);
+            long start = System.nanoTime();
+            urlConnection.connect();
+            sMetrics.recordSince(SyncMetrics.PHASE_CONNECT, start);
+
+            start = System.nanoTime();
+            int responseCode = urlConnection.getResponseCode();
+            sMetrics.recordSince(SyncMetrics.PHASE_FIRST_BYTE, start);
+            sMetrics.count(SyncMetrics.COUNTER_HTTP_STATUS + responseCode, 1);
+            // The exchange is sound from here on, even if the answer isn't what we hoped for
+            completed = true;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have is still current, so there is nothing to parse, store or announce.
+                Log.d(LOG_TAG, "Sync Complete. Forecast not modified for " + locationQuery);
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_NOT_MODIFIED);
+                setLocationStatus(preferred, LOCATION_STATUS_OK);
+                return 0;
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                // OWM doesn't know the city.  Asking again won't help, and says nothing about
+                // the health of the server.
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_INVALID_LOCATION);
+                forgetValidators(locationQuery);
+                setLocationStatus(preferred, LOCATION_STATUS_INVALID);
+                return 0;
+            } else if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                throw new IOException("Server error " + responseCode + " for " + locationQuery);
+            } else if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // Something is wrong with the request itself, e.g. the API key, so retrying
+                // would only get the same answer.
+                Log.e(LOG_TAG, "Request rejected with " + responseCode + " for " + locationQuery);
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_REJECTED);
+                setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                return 0;
+            }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+            // Parse the response straight off the wire, one token at a time
+            completed = false;
+            ResponseDecoder decoder = new ResponseDecoder();
+            ResponseArchive.Capture capture = ResponseArchive.getInstance(getContext())
+                    .startCapture(ResponseArchive.KIND_DAILY, locationQuery);
+            decoder.capture(capture);
+            reader = decoder.open(urlConnection);
+            long fetchedAt = System.currentTimeMillis();
+            ForecastWriter writer = new ForecastWriter(locationQuery, fetchedAt);
+            start = System.nanoTime();
+            try {
+                changed = getWeatherDataFromStream(reader, writer, preferred);
+            } finally {
+                writer.release();
+                // Reading, parsing and writing are interleaved, so parsing gets whatever time
+                // wasn't spent waiting for the network or for the database
+                long readNanos = decoder.getWireReadNanos();
+                sMetrics.record(SyncMetrics.PHASE_DOWNLOAD, readNanos);
+                sMetrics.record(SyncMetrics.PHASE_PARSE,
+                        System.nanoTime() - start - readNanos - writer.getWriteNanos());
+            }
+            completed = true;
+            if (changed >= 0) {
+                ForecastValidators.fromResponse(urlConnection).save(getContext(), locationQuery);
+                // Kept for replayArchive
+                capture.commit(fetchedAt);
+            } else {
+                changed = 0;
+            }
+            Log.d(LOG_TAG, "Downloaded " + decoder.getWireBytes() + " bytes, "
+                    + decoder.getDecodedBytes() + " decoded");
+        } catch (ForecastParser.ForecastParseException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            sMetrics.countOutcome(SyncMetrics.OUTCOME_PARSE_ERROR);
+            synchronized (syncResult) {
+                syncResult.stats.numParseExceptions++;
+            }
+            setLocationStatus(preferred, LOCATION_STATUS_SERVER_INVALID);
+        } finally {
+            // Hands the connection back for reuse if the response was read cleanly
+            sHttpClient.end(urlConnection, reader, completed);
+            sHostLimiter.release(host);
+        }
+        return changed;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Drops the validators of a location OWM no longer knows, so if it comes back the first
+     * forecast we get for it is a whole one rather than a 304 for what we had before.
+     */
+    private void forgetValidators(String locationQuery) {
+        ForecastValidators.clear(getContext(), locationQuery);
+        ForecastValidators.clear(getContext(), WeatherContract.PATH_HOURLY + ":" + locationQuery);
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches and stores the 5 day forecast of a location in 3 hour steps.  This is extra
+     * detail on top of the daily forecast, so it gets a single attempt, and failures are logged
+     * rather than reported to the SyncManager or the circuit breaker.
+     */
+    private void syncHourlyForecast(String locationQuery) {
+        long start = System.nanoTime();
+        HttpURLConnection urlConnection;
+        try {
+            urlConnection = sWeatherSource.openHourlyForecast(locationQuery);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            return;
+        }
 
+        Reader reader = null;
+        boolean completed = false;
+        String host = urlConnection.getURL().getHost();
+        // The hourly forecast has validators of its own
+        String validatorsKey = WeatherContract.PATH_HOURLY + ":" + locationQuery;
+        try {
+            sHostLimiter.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        sHttpClient.begin(urlConnection);
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            ForecastValidators validators = ForecastValidators.load(getContext(), validatorsKey);
+            if (!validators.isEmpty() && hasHourlyForecast(locationQuery)) {
+                validators.applyTo(urlConnection);
+            }
+            ResponseDecoder.requestCompression(urlConnection);
+
+            int responseCode = urlConnection.getResponseCode();
+            sMetrics.count(SyncMetrics.COUNTER_HTTP_STATUS + responseCode, 1);
+            completed = true;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.d(LOG_TAG, "Hourly forecast not modified for " + locationQuery);
+                return;
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Hourly forecast failed with " + responseCode
+                        + " for " + locationQuery);
+                return;
+            }
+
+            completed = false;
+            ResponseDecoder decoder = new ResponseDecoder();
+            ResponseArchive.Capture capture = ResponseArchive.getInstance(getContext())
+                    .startCapture(ResponseArchive.KIND_HOURLY, locationQuery);
+            decoder.capture(capture);
+            reader = decoder.open(urlConnection);
+            long fetchedAt = System.currentTimeMillis();
+            HourlyWriter writer = new HourlyWriter(locationQuery);
+            int messageCode = new HourlyForecastParser().parse(reader, writer);
+            completed = true;
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "Hourly forecast failed with " + messageCode
+                        + " for " + locationQuery);
+            } else if (writer.finish()) {
+                ForecastValidators.fromResponse(urlConnection).save(getContext(), validatorsKey);
+                capture.commit(fetchedAt);
+            }
+        } catch (IOException | ForecastParser.ForecastParseException e) {
+            Log.e(LOG_TAG, "Error fetching hourly forecast for " + locationQuery, e);
+        } finally {
+            sHttpClient.end(urlConnection, reader, completed);
+            sHostLimiter.release(host);
+            sMetrics.recordSince(SyncMetrics.PHASE_HOURLY, start);
+        }
+    }
+
+    /**
+     * Rebuilds the forecasts from the {@link ResponseArchive} without touching the network.
+     * Only the latest response of each kind is replayed for every location, with the time it
+     * was fetched at, so the days come out as they did when it arrived.
+     *
+     * @return the number of weather rows written for the preferred location.
+     */
+    private int replayArchive(String preferredLocation, SyncResult syncResult) {
+        long start = System.nanoTime();
+        final Map<String, ResponseArchive.Record> latest = new LinkedHashMap<>();
+        ResponseArchive.getInstance(getContext()).read(new ResponseArchive.Visitor() {
+            @Override
+            public void visit(ResponseArchive.Record record) {
+                String key = record.kind + ":" + record.location;
+                // Records are visited oldest first, so move the newer one to the end
+                latest.remove(key);
+                latest.put(key, record);
+            }
+        });
+
+        int preferredChanged = 0;
+        for (ResponseArchive.Record record : latest.values()) {
+            Reader reader = record.openReader();
+            try {
+                if (record.kind == ResponseArchive.KIND_DAILY) {
+                    ForecastWriter writer = new ForecastWriter(record.location, record.fetchedAt);
+                    int changed;
+                    try {
+                        if (new ForecastParser().parse(reader, writer)
+                                != HttpURLConnection.HTTP_OK) {
+                            continue;
+                        }
+                        changed = writer.finish();
+                    } finally {
+                        writer.release();
+                    }
+                    syncResult.stats.numInserts += changed;
+                    if (record.location.equals(preferredLocation)) {
+                        preferredChanged = changed;
+                    }
+                } else if (record.kind == ResponseArchive.KIND_HOURLY) {
+                    HourlyWriter writer = new HourlyWriter(record.location);
+                    if (new HourlyForecastParser().parse(reader, writer)
+                            == HttpURLConnection.HTTP_OK) {
+                        writer.finish();
+                    }
                 }
+            } catch (IOException | ForecastParser.ForecastParseException e) {
+                Log.e(LOG_TAG, "Error replaying forecast for " + record.location, e);
+                syncResult.stats.numParseExceptions++;
             }
+        }
+        Log.d(LOG_TAG, "Replayed " + latest.size() + " archived responses");
+        sMetrics.recordSince(SyncMetrics.PHASE_REPLAY, start);
+        return preferredChanged;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+    /**
+     * @return true if the database holds hourly steps for the location that haven't passed.
+     */
+    private boolean hasHourlyForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithRange(
+                        locationSetting, System.currentTimeMillis(), Long.MAX_VALUE),
+                new String[]{WeatherContract.HourlyEntry.TABLE_NAME + "." + WeatherContract.HourlyEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the forecast in JSON Format from the reader and write it to the database as it
+     * arrives.
+     *
+     * Rather than building the whole response into an Object hierarchy first, the parser hands
+     * us one day at a time and the {@link ForecastWriter} flushes them to the provider in small
+     * batches, so memory use stays flat however many days are requested.  Days that are
+     * already stored with the same values are left alone.
+     *
+     * @return the number of rows written, or -1 if OWM answered with an error message.
+     */
+    private int getWeatherDataFromStream(Reader forecastReader, ForecastWriter writer,
+                                         boolean preferred)
+            throws IOException, ForecastParser.ForecastParseException {
+        int messageCode = new ForecastParser().parse(forecastReader, writer);
+
+        // do we have an error?
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_INVALID_LOCATION);
+                forgetValidators(writer.mLocationSetting);
+                setLocationStatus(preferred, LOCATION_STATUS_INVALID);
+                return -1;
+            default:
+                sMetrics.countOutcome(SyncMetrics.OUTCOME_REJECTED);
+                setLocationStatus(preferred, LOCATION_STATUS_SERVER_DOWN);
+                return -1;
+        }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+        int changed = writer.finish();
+        Log.d(LOG_TAG, "Sync Complete. " + changed + " Changed for " + writer.mLocationSetting);
+        sMetrics.countOutcome(SyncMetrics.OUTCOME_OK);
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        setLocationStatus(preferred, LOCATION_STATUS_OK);
+        return changed;
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * The location status describes the preferred location only, so results for the other
+     * locations of an all-locations sync are not recorded.
+     */
+    private void setLocationStatus(boolean preferred, @LocationStatus int locationStatus) {
+        if (preferred) {
+            setLocationStatus(getContext(), locationStatus);
+        }
+    }
+
+    /**
+     * @return true if the database holds today's forecast for the location.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Turns the days coming out of the {@link ForecastParser} into weather rows.  Rows are
+     * buffered until {@link #FLUSH_THRESHOLD} of them are ready and then written as one batch.
+     * OWM never sends more than 16 days, so a whole forecast, along with the pruning of the
+     * days before it, is normally committed in a single transaction.
+     *
+     * The days are buffered in a pooled {@link ForecastBatch}, whose arrays are reused by every
+     * forecast, and each one is compared with the stored row for the same date through its
+     * {@link ForecastFingerprint}.  Only new or changed days are handed to the provider, as
+     * arrays of primitives that it binds straight to its INSERT, see
+     * {@link WeatherContract.WeatherEntry#writeDays}, so a forecast that matches what is stored
+     * allocates next to nothing.  When nothing changed the provider isn't called at all, so it
+     * sends no change notifications.  {@link #release} must be called once the writer is done
+     * with.
+     */
+    private class ForecastWriter implements ForecastParser.Handler {
+        private static final int FLUSH_THRESHOLD = 16;
+
+        private final String mLocationSetting;
+        private ForecastBatch mPending = ForecastBatchPool.getInstance().acquire();
+        // the rows of the batch that differ from the stored ones, reused by every flush
+        private int[] mChangedRows = new int[FLUSH_THRESHOLD];
+        private final Time mDayTime;
+        private final int mJulianStartDay;
+        private long mLocationId = -1;
+        // fingerprints of the stored rows, loaded once the location is known
+        private ForecastFingerprint.Stored mStored;
+        private int mChanged;
+        // time spent in the provider, which the parse timing leaves out
+        private long mWriteNanos;
+
+        /**
+         * @param fetchedAt when the forecast was received, in milliseconds since the epoch.  The
+         *                  first day of the forecast is the day this falls on.
+         */
+        ForecastWriter(String locationSetting, long fetchedAt) {
+            mLocationSetting = locationSetting;
 
             // OWM returns daily forecasts based upon the local time of the city that is being
             // asked for, which means that we need to know the GMT offset to translate this data
@@ -307,124 +783,236 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // normalized UTC date for all of our weather.
 
             Time dayTime = new Time();
-            dayTime.setToNow();
+            dayTime.set(fetchedAt);
 
             // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            mJulianStartDay = Time.getJulianDay(fetchedAt, dayTime.gmtoff);
 
             // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-
-                if(i == 0){
-                    Log.v(LOG_TAG, "SENDING INFO TO WEARABLE!!!!!!!!!!!!!!!!");
-                    PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/todayWeather");
-                    String a = Utility.formatTemperature(getContext(), high);
-                    String b = Utility.formatTemperature(getContext(), low);
-                    Log.v(LOG_TAG, "INFO BEING SENT: " + a + " " + b);
-                    putDataMapReq.getDataMap().putString(DATA_HIGH_KEY, a);
-                    putDataMapReq.getDataMap().putString(DATA_LOW_KEY, b);
-                    putDataMapReq.getDataMap().putInt(DATA_WEATHER_KEY, weatherId);
-                    putDataMapReq.getDataMap().putLong("KEY", System.currentTimeMillis());
-                    putDataMapReq.setUrgent();
-                    PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
-                    PendingResult<DataApi.DataItemResult> pendingResult = Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
-                    DataApi.DataItemResult result = pendingResult.await();
-                    if(result.getStatus().isSuccess()) {
-                        Log.d(LOG_TAG, "Data item set: " + result.getDataItem().getUri());
-                    }
-                }
+            mDayTime = new Time();
+        }
 
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            long start = System.nanoTime();
+            mLocationId = addLocation(mLocationSetting, cityName, lat, lon);
+            mWriteNanos += record(SyncMetrics.PHASE_LOCATION, start);
+            // Any days that arrived before the city can go out now
+            if (mPending.size() >= FLUSH_THRESHOLD) {
+                flush(false);
             }
+        }
 
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = mDayTime.setJulianDay(mJulianStartDay + day.index);
 
+            mPending.add(dateTime, day);
 
+            if (mPending.size() >= FLUSH_THRESHOLD && mLocationId != -1) {
+                flush(false);
+            }
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        /**
+         * Writes out whatever is still buffered and deletes the days before today.
+         *
+         * @return the number of rows written for this forecast.
+         */
+        int finish() throws ForecastParser.ForecastParseException {
+            if (mLocationId == -1) {
+                throw new ForecastParser.ForecastParseException("Forecast without a city");
+            }
+            flush(true);
+            return mChanged;
+        }
+
+        long getWriteNanos() {
+            return mWriteNanos;
+        }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+        /**
+         * Hands the writer's batch back to the pool.  The writer can't be used afterwards.
+         */
+        void release() {
+            ForecastBatchPool.getInstance().release(mPending);
+            mPending = null;
+        }
 
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        private long record(String phase, long start) {
+            long nanos = System.nanoTime() - start;
+            sMetrics.record(phase, nanos);
+            return nanos;
+        }
+
+        private void flush(boolean prune) {
+            if (mStored == null) {
+                long start = System.nanoTime();
+                mStored = ForecastFingerprint.loadStored(
+                        getContext().getContentResolver(), mLocationId);
+                mWriteNanos += record(SyncMetrics.PHASE_COMPARE, start);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
 
-            if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                //Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                mGoogleApiClient.disconnect();
+            ForecastBatch batch = mPending;
+            int size = batch.size();
+            if (mChangedRows.length < size) {
+                mChangedRows = new int[batch.capacity()];
+            }
+            int changed = 0;
+            for (int i = 0; i < size; i++) {
+                if (!mStored.matches(batch.getDate(i), ForecastFingerprint.of(batch, i))) {
+                    mChangedRows[changed++] = i;
+                }
             }
+            sMetrics.count(SyncMetrics.COUNTER_ROWS_SKIPPED, size - changed);
 
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            long yesterday = mDayTime.setJulianDay(mJulianStartDay - 1);
+            prune &= mStored.hasDatesUpTo(yesterday);
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            if (changed > 0 || prune) {
+                // add to database, and delete old data so we don't build up an endless
+                // history, in one transaction
+                long start = System.nanoTime();
+                try {
+                    Bundle result = WeatherContract.WeatherEntry.writeDays(
+                            getContext().getContentResolver(), mLocationId, batch,
+                            mChangedRows, changed, prune ? yesterday : -1);
+                    // A prune that comes with inserts shares their transaction, so it can only
+                    // be timed on its own when nothing else changed
+                    String phase = !prune ? SyncMetrics.PHASE_INSERT
+                            : changed > 0 ? SyncMetrics.PHASE_INSERT_PRUNE
+                            : SyncMetrics.PHASE_PRUNE;
+                    mWriteNanos += record(phase, start);
+                    sMetrics.count(SyncMetrics.COUNTER_ROWS_WRITTEN, changed);
+                    if (prune) {
+                        sMetrics.count(SyncMetrics.COUNTER_ROWS_PRUNED,
+                                result.getInt(WeatherContract.EXTRA_ROWS_PRUNED));
+                    }
+                    mChanged += changed;
+                    for (int i = 0; i < size; i++) {
+                        mStored.put(batch.getDate(i), ForecastFingerprint.of(batch, i));
+                    }
+                } catch (RemoteException | OperationApplicationException e) {
+                    Log.e(LOG_TAG, "Error storing forecast for " + mLocationSetting, e);
+                    mWriteNanos += System.nanoTime() - start;
+                }
+            }
+            batch.clear();
         }
     }
 
+    /**
+     * Collects the steps coming out of the {@link HourlyForecastParser} and stores them with a
+     * single bulk insert, about 40 rows per location.  The new steps replace the stored ones
+     * with the same times, thanks to the table's conflict clause, and the steps before the new
+     * forecast are deleted in the same transaction, so readers never see a location without
+     * any steps, nor the old steps next to the new ones.
+     */
+    private class HourlyWriter implements HourlyForecastParser.Handler {
+        private final String mLocationSetting;
+        private final ArrayList<ContentValues> mSteps =
+                new ArrayList<>(HOURLY_STEPS);
+        private long mLocationId = -1;
+        private long mFirstTime = Long.MAX_VALUE;
+
+        HourlyWriter(String locationSetting) {
+            mLocationSetting = locationSetting;
+        }
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            long start = System.nanoTime();
+            mLocationId = addLocation(mLocationSetting, cityName, lat, lon);
+            sMetrics.recordSince(SyncMetrics.PHASE_LOCATION, start);
+        }
+
+        @Override
+        public void onStep(HourlyForecastParser.Step step) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.HourlyEntry.COLUMN_TIME, step.time);
+            values.put(WeatherContract.HourlyEntry.COLUMN_TEMP, step.temperature);
+            values.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, step.humidity);
+            values.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, step.pressure);
+            values.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, step.windSpeed);
+            values.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, step.windDirection);
+            values.put(WeatherContract.HourlyEntry.COLUMN_PRECIPITATION, step.precipitation);
+            values.put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, step.description);
+            values.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, step.weatherId);
+            mSteps.add(values);
+            mFirstTime = Math.min(mFirstTime, step.time);
+        }
+
+        /**
+         * @return whether the steps were stored.
+         */
+        boolean finish() throws ForecastParser.ForecastParseException {
+            if (mLocationId == -1) {
+                throw new ForecastParser.ForecastParseException("Forecast without a city");
+            }
+            if (mSteps.isEmpty()) {
+                return false;
+            }
+            for (ContentValues values : mSteps) {
+                values.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, mLocationId);
+            }
 
+            // Replaces the stored steps in one transaction, with a single notification
+            int inserted = getContext().getContentResolver().bulkInsert(
+                    WeatherContract.HourlyEntry.buildHourlyWindow(mLocationId, mFirstTime),
+                    mSteps.toArray(new ContentValues[mSteps.size()]));
+            sMetrics.count(SyncMetrics.COUNTER_HOURLY_ROWS_WRITTEN, inserted);
+            Log.d(LOG_TAG, "Stored " + inserted + " hourly steps for " + mLocationSetting);
+            return inserted == mSteps.size();
+        }
+    }
+
+    /**
+     * Sends today's forecast for the preferred location, as it is stored, to the watch.  Blocks
+     * while connecting to Play Services and while the data item is put.
+     */
+    private void updateWearable() {
+        Context context = getContext();
+        WeatherContract.WeatherEntry.Summary today = WeatherContract.WeatherEntry.getToday(
+                context.getContentResolver(), Utility.getPreferredLocation(context));
+        if (today.size() == 0) {
+            return;
+        }
+        // One client is shared by every wear publication, don't let two of them connect
+        // and disconnect it under each other
+        synchronized (mGoogleApiClient) {
+            ConnectionResult connectionResult =
+                    mGoogleApiClient.blockingConnect(WEAR_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.d(LOG_TAG, "Not updating wearable: " + connectionResult);
+                return;
+            }
+            try {
+                updateWearable(today.getHigh(0), today.getLow(0), today.getWeatherId(0));
+            } finally {
+                mGoogleApiClient.disconnect();
+            }
+        }
+    }
+
+    private void updateWearable(double high, double low, int weatherId) {
+        Log.v(LOG_TAG, "SENDING INFO TO WEARABLE!!!!!!!!!!!!!!!!");
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create("/todayWeather");
+        String a = Utility.formatTemperature(getContext(), high);
+        String b = Utility.formatTemperature(getContext(), low);
+        Log.v(LOG_TAG, "INFO BEING SENT: " + a + " " + b);
+        putDataMapReq.getDataMap().putString(DATA_HIGH_KEY, a);
+        putDataMapReq.getDataMap().putString(DATA_LOW_KEY, b);
+        putDataMapReq.getDataMap().putInt(DATA_WEATHER_KEY, weatherId);
+        putDataMapReq.getDataMap().putLong("KEY", System.currentTimeMillis());
+        putDataMapReq.setUrgent();
+        PutDataRequest putDataReq = putDataMapReq.asPutDataRequest();
+        PendingResult<DataApi.DataItemResult> pendingResult = Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq);
+        DataApi.DataItemResult result = pendingResult.await(WEAR_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if(result.getStatus().isSuccess()) {
+            Log.d(LOG_TAG, "Data item set: " + result.getDataItem().getUri());
+        }
+    }
 
     private void updateWidgets() {
         Context context = getContext();
@@ -461,16 +1049,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                // A single day, read with one call rather than a query
+                WeatherContract.WeatherEntry.Summary today = WeatherContract.WeatherEntry.getToday(
+                        context.getContentResolver(), locationQuery);
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today.size() != 0) {
+                    int weatherId = today.getWeatherId(0);
+                    double high = today.getHigh(0);
+                    double low = today.getLow(0);
+                    String desc = today.getDescription(0);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -546,7 +1133,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -561,73 +1147,121 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
+        // Most syncs are for locations we have seen before, and their ids don't change
+        long generation = LocationIdCache.getGeneration();
+        long locationId = LocationIdCache.get(locationSetting);
+        if (locationId != -1) {
+            sMetrics.count(SyncMetrics.COUNTER_LOCATION_CACHE_HITS, 1);
+            return locationId;
+        }
+        sMetrics.count(SyncMetrics.COUNTER_LOCATION_CACHE_MISSES, 1);
+
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+
+        // Finally, insert location data into the database.  The provider hands back the row
+        // that is already there if the location is stored, so this takes one round trip either
+        // way.
+        Uri insertedUri = getContext().getContentResolver().insert(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+                locationValues
+        );
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+        locationId = ContentUris.parseId(insertedUri);
+        LocationIdCache.put(locationSetting, locationId, generation);
+        return locationId;
+    }
 
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
+    /**
+     * Replaces the source forecasts are fetched from, e.g. with a local server for tests and
+     * benchmarks.
+     */
+    @VisibleForTesting
+    static void setWeatherSource(WeatherSource weatherSource) {
+        sWeatherSource = weatherSource;
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    /**
+     * Replaces the client that bounds the requests, e.g. with shorter timeouts for tests.
+     */
+    @VisibleForTesting
+    static void setHttpClient(SyncHttpClient httpClient) {
+        sHttpClient = httpClient;
     }
 
     /**
      * Helper method to schedule the sync adapter periodic execution
+     *
+     * @param allLocations whether the periodic sync refreshes every stored location rather
+     *                     than just the preferred one.
      */
-    public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
+    public static void configurePeriodicSync(Context context, int syncInterval, int flexTime,
+                                             boolean allLocations) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // The SyncManager tells periodic syncs apart by their extras, so the other kind has to
+        // go or both would run
+        ContentResolver.removePeriodicSync(account, authority, periodicExtras(!allLocations));
+        Bundle extras = periodicExtras(allLocations);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
+        }
+    }
+
+    private static Bundle periodicExtras(boolean allLocations) {
+        Bundle extras = new Bundle();
+        if (allLocations) {
+            extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         }
+        return extras;
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately.  Requests made while another
+     * one is still pending or running are merged, see {@link SyncRequestCoalescer}.
+     * @param context The context used to access the account service
+     * @return a ticket to check the sync with through {@link SyncRequestCoalescer}
+     */
+    public static long syncImmediately(Context context) {
+        return SyncRequestCoalescer.getInstance().request(context, false);
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh every stored location right away
+     * @param context The context used to access the account service
+     * @return a ticket to check the sync with through {@link SyncRequestCoalescer}
+     */
+    public static long syncAllLocationsImmediately(Context context) {
+        return SyncRequestCoalescer.getInstance().request(context, true);
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter rebuild the stored forecasts from the
+     * {@link ResponseArchive}, without using the network.
      * @param context The context used to access the account service
      */
-    public static void syncImmediately(Context context) {
+    public static void replayArchive(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_REPLAY, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -675,7 +1309,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SyncScheduler.reschedule(context, true);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
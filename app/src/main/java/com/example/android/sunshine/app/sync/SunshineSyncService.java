@@ -20,6 +20,9 @@ import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service implements DataApi.DataListener, GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -79,6 +82,16 @@ public class SunshineSyncService extends Service implements DataApi.DataListener
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
 
+    /**
+     * Prints the {@link SyncMetrics}, for {@code adb shell dumpsys activity service
+     * com.example.android.sunshine.app/.sync.SunshineSyncService}.  Passing {@code reset}
+     * clears them after printing.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncMetrics.getInstance().dump(this, writer, args);
+    }
+
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
         Log.v("LOG TAG", "DATA EVENT IN THE SERVICE!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
@@ -73,6 +73,8 @@ public class SunshineWearSync extends Service implements DataApi.DataListener, G
                 // DataItem changed
                 DataItem item = event.getDataItem();
                 if (item.getUri().getPath().compareTo("/getWeather") == 0) {
+                    // The watch face is showing the weather
+                    SyncScheduler.markViewed(this);
                     SunshineSyncAdapter.syncImmediately(this);
                 }
             } else if (event.getType() == DataEvent.TYPE_DELETED) {
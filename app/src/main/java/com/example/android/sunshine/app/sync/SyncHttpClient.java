@@ -0,0 +1,199 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts bounds on the forecast requests and lets their connections be reused.
+ *
+ * Every request gets connect and read timeouts, plus an overall deadline enforced by a
+ * watchdog that disconnects the request if it is still running when the deadline passes, so a
+ * server that trickles bytes can't hold a sync forever.  {@link #cancelAll} does the same for
+ * every request in flight when the sync is cancelled, since blocking socket reads don't notice
+ * thread interrupts.
+ *
+ * HttpURLConnection already keeps a pool of keep-alive sockets, but only gets a socket back
+ * when the response body has been read to the end and closed, and never when
+ * {@link HttpURLConnection#disconnect} is called.  {@link #end} therefore drains and closes
+ * responses that completed normally and only disconnects the ones that didn't, so the
+ * requests of an all-locations sync share the same TCP connection.
+ */
+class SyncHttpClient {
+    private static final String LOG_TAG = SyncHttpClient.class.getSimpleName();
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+    static final long DEFAULT_DEADLINE_MILLIS = 60 * 1000;
+
+    // Leftovers bigger than this aren't worth reading just to save a handshake
+    private static final int MAX_DRAIN_CHARS = 16 * 1024;
+
+    private static final ScheduledExecutorService sWatchdog =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SyncHttpClient watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mDeadlineMillis;
+    private final Map<HttpURLConnection, ScheduledFuture<?>> mInFlight = new HashMap<>();
+    // Set by cancelAll, so the requesting threads can tell their IOException from a failure
+    private volatile boolean mCancelled;
+
+    SyncHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis, long deadlineMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mDeadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Applies the timeouts and starts the deadline of a request.  Must be called before the
+     * connection is made, and matched by a call to {@link #end}.
+     */
+    void begin(final HttpURLConnection urlConnection) {
+        urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+        urlConnection.setReadTimeout(mReadTimeoutMillis);
+        ScheduledFuture<?> deadline = sWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Log.w(LOG_TAG, "Deadline passed for " + urlConnection.getURL().getHost());
+                // Makes the blocked connect or read throw in the requesting thread
+                urlConnection.disconnect();
+            }
+        }, mDeadlineMillis, TimeUnit.MILLISECONDS);
+        synchronized (mInFlight) {
+            mInFlight.put(urlConnection, deadline);
+        }
+    }
+
+    /**
+     * Finishes a request started with {@link #begin}.
+     *
+     * @param body the reader the response was read from, if any.  It is closed.
+     * @param completed whether the exchange went as planned.  Connections that failed half way
+     *                  are in an unknown state and are never reused.
+     */
+    void end(HttpURLConnection urlConnection, Reader body, boolean completed) {
+        ScheduledFuture<?> deadline;
+        synchronized (mInFlight) {
+            deadline = mInFlight.remove(urlConnection);
+        }
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+
+        boolean reusable = completed;
+        if (body != null) {
+            reusable &= drain(body);
+        } else if (completed) {
+            // Error responses have a body of their own, and 304s have none at all
+            InputStream errorStream = urlConnection.getErrorStream();
+            if (errorStream != null) {
+                reusable = drain(errorStream);
+            }
+        }
+        if (!reusable) {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * Clears the cancellation of the previous sync.  Called when a sync starts.
+     */
+    void reset() {
+        mCancelled = false;
+    }
+
+    /**
+     * @return whether {@link #cancelAll} was called since the last {@link #reset}, in which
+     * case a failed request was aborted by us rather than by the network or the server.
+     */
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Aborts every request in flight.  The requesting threads see an IOException, and
+     * {@link #isCancelled} is set before they do.
+     */
+    void cancelAll() {
+        mCancelled = true;
+        List<HttpURLConnection> connections;
+        synchronized (mInFlight) {
+            connections = new ArrayList<>(mInFlight.keySet());
+        }
+        for (HttpURLConnection urlConnection : connections) {
+            Log.d(LOG_TAG, "Cancelling request to " + urlConnection.getURL().getHost());
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * Reads what is left of the body and closes it.
+     *
+     * @return true if the body was read to the end.
+     */
+    private static boolean drain(Reader body) {
+        boolean drained = false;
+        try {
+            char[] skip = new char[1024];
+            int total = 0;
+            int read;
+            while (total <= MAX_DRAIN_CHARS && (read = body.read(skip)) != -1) {
+                total += read;
+            }
+            drained = total <= MAX_DRAIN_CHARS;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error draining response", e);
+        }
+        try {
+            body.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing stream", e);
+        }
+        return drained;
+    }
+
+    private static boolean drain(InputStream body) {
+        boolean drained = false;
+        try {
+            byte[] skip = new byte[1024];
+            int total = 0;
+            int read;
+            while (total <= MAX_DRAIN_CHARS && (read = body.read(skip)) != -1) {
+                total += read;
+            }
+            drained = total <= MAX_DRAIN_CHARS;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error draining response", e);
+        }
+        try {
+            body.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing stream", e);
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.NotificationBatcher;
+import com.example.android.sunshine.app.data.WeatherSnapshotCache;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Where sync time goes, kept in memory for the life of the process.
+ *
+ * Every phase of a sync records its duration here.  For each phase the last
+ * {@link #WINDOW} samples are kept, so the percentiles and the histogram in {@link #dump}
+ * describe recent syncs rather than everything since the process started, alongside lifetime
+ * totals.  Counters cover rows, HTTP statuses and the outcome of each location fetch, and the
+ * dump adds the byte totals of {@link TransferStats}, the state of the scheduler, the request
+ * coalescer and the circuit breakers, and how the provider's {@link WeatherSnapshotCache} and
+ * {@link NotificationBatcher} are doing.
+ *
+ * The dump is shown by {@code adb shell dumpsys activity service
+ * com.example.android.sunshine.app/.sync.SunshineSyncService} and by the metrics screen of
+ * debug builds.
+ */
+public class SyncMetrics {
+    // The whole sync, from onPerformSync to the fan-out being queued
+    public static final String PHASE_SYNC = "sync";
+    // Opening the TCP (and TLS) connection
+    public static final String PHASE_CONNECT = "connect";
+    // From sending the request to having the response headers
+    public static final String PHASE_FIRST_BYTE = "first_byte";
+    // Time spent blocked on the network while reading the body
+    public static final String PHASE_DOWNLOAD = "download";
+    // Time spent tokenizing and converting the body, excluding reads and writes
+    public static final String PHASE_PARSE = "parse";
+    // Finding or adding the location row
+    public static final String PHASE_LOCATION = "location";
+    // Reading the stored fingerprints the new days are compared with
+    public static final String PHASE_COMPARE = "compare";
+    // Applying a batch of inserts
+    public static final String PHASE_INSERT = "insert";
+    // Applying the last batch of a forecast, the inserts plus the prune of past days, which
+    // share one transaction
+    public static final String PHASE_INSERT_PRUNE = "insert_prune";
+    // Deleting the past days of a forecast when no other rows changed
+    public static final String PHASE_PRUNE = "prune";
+    // Fetching and storing the 3 hour forecast of a location
+    public static final String PHASE_HOURLY = "hourly";
+    // Rebuilding the forecasts from the response archive
+    public static final String PHASE_REPLAY = "replay";
+    // Prefix of the phases of the fan-out targets, e.g. "publish:wear"
+    public static final String PHASE_PUBLISH = "publish:";
+
+    public static final String COUNTER_ROWS_WRITTEN = "rows_written";
+    public static final String COUNTER_ROWS_SKIPPED = "rows_unchanged";
+    public static final String COUNTER_ROWS_PRUNED = "rows_pruned";
+    public static final String COUNTER_HOURLY_ROWS_WRITTEN = "hourly_rows_written";
+    public static final String COUNTER_PUBLISH_DROPPED = "publish_dropped";
+    public static final String COUNTER_LOCATION_CACHE_HITS = "location_cache_hits";
+    public static final String COUNTER_LOCATION_CACHE_MISSES = "location_cache_misses";
+    // Prefix of the HTTP status counters, e.g. "http:200"
+    public static final String COUNTER_HTTP_STATUS = "http:";
+    // Prefix of the outcome counters, e.g. "outcome:not_modified"
+    public static final String COUNTER_OUTCOME = "outcome:";
+
+    public static final String OUTCOME_OK = "ok";
+    public static final String OUTCOME_NOT_MODIFIED = "not_modified";
+    public static final String OUTCOME_INVALID_LOCATION = "invalid_location";
+    public static final String OUTCOME_REJECTED = "rejected";
+    // Includes server errors, which are also counted by status
+    public static final String OUTCOME_IO_ERROR = "io_error";
+    public static final String OUTCOME_PARSE_ERROR = "parse_error";
+    public static final String OUTCOME_BREAKER_OPEN = "breaker_open";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+
+    static final int WINDOW = 128;
+    // The dump argument that clears the metrics once they are printed
+    static final String ARG_RESET = "reset";
+
+    // Upper bounds, in milliseconds, of the histogram buckets.  The last bucket is unbounded.
+    private static final long[] BUCKET_BOUNDS_MILLIS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private static final SyncMetrics sInstance = new SyncMetrics();
+
+    private final Map<String, Timer> mTimers = new TreeMap<>();
+    private final Map<String, long[]> mCounters = new TreeMap<>();
+
+    public static SyncMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param nanos the duration of the phase, as measured with {@link System#nanoTime}.
+     */
+    public synchronized void record(String phase, long nanos) {
+        Timer timer = mTimers.get(phase);
+        if (timer == null) {
+            timer = new Timer();
+            mTimers.put(phase, timer);
+        }
+        timer.add(nanos);
+    }
+
+    /**
+     * Records the time since {@code startNanos}, as returned by {@link System#nanoTime}.
+     */
+    public void recordSince(String phase, long startNanos) {
+        record(phase, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void count(String counter, long delta) {
+        long[] value = mCounters.get(counter);
+        if (value == null) {
+            value = new long[1];
+            mCounters.put(counter, value);
+        }
+        value[0] += delta;
+    }
+
+    public void countOutcome(String outcome) {
+        count(COUNTER_OUTCOME + outcome, 1);
+    }
+
+    public synchronized long getCount(String counter) {
+        long[] value = mCounters.get(counter);
+        return value != null ? value[0] : 0;
+    }
+
+    public synchronized void reset() {
+        mTimers.clear();
+        mCounters.clear();
+    }
+
+    /**
+     * @return the percentile of the recent samples of the phase, in nanoseconds, or -1 if it
+     * has none.
+     */
+    @VisibleForTesting
+    synchronized long getPercentile(String phase, int percent) {
+        Timer timer = mTimers.get(phase);
+        return timer != null ? Timer.percentile(timer.sorted(), percent) : -1;
+    }
+
+    /**
+     * Dumps the metrics, then clears them if the arguments hold {@link #ARG_RESET}.
+     */
+    public void dump(Context context, PrintWriter writer, String[] args) {
+        dump(context, writer);
+        if (args != null && Arrays.asList(args).contains(ARG_RESET)) {
+            reset();
+            writer.println();
+            writer.println("Metrics reset");
+        }
+    }
+
+    public void dump(Context context, PrintWriter writer) {
+        SyncScheduler.Decision decision = SyncScheduler.getLastDecision(context);
+        writer.println("Schedule: " + (decision != null ? decision : "none"));
+        long openUntil = CircuitBreaker.getOpenUntil(context);
+        writer.println("Circuit breakers: " + (openUntil == 0 ? "closed"
+                : "open for " + DateUtils.formatElapsedTime(
+                        (openUntil - System.currentTimeMillis()) / 1000)));
+        SyncRequestCoalescer coalescer = SyncRequestCoalescer.getInstance();
+        writer.println("Immediate sync requests: " + coalescer.getRequestCount()
+                + ", issued " + coalescer.getIssuedCount());
+        writer.println("Downloads: " + TransferStats.getDownloadCount()
+                + ", " + TransferStats.getTotalWireBytes() + " bytes on wire, "
+                + TransferStats.getTotalDecodedBytes() + " decoded");
+        writer.println("Response archive: "
+                + ResponseArchive.getInstance(context).getSize() + " bytes");
+        writer.println("Snapshot cache: " + WeatherSnapshotCache.getHitCount() + " hits, "
+                + WeatherSnapshotCache.getMissCount() + " misses");
+        writer.println("Change notifications: " + NotificationBatcher.getFiredCount()
+                + " fired, " + NotificationBatcher.getDeliveredCount() + " delivered");
+        writer.println();
+        dumpMetrics(writer);
+    }
+
+    public String dump(Context context) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump(context, writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    private synchronized void dumpMetrics(PrintWriter writer) {
+        writer.println("Sync phases (ms, last " + WINDOW + " samples):");
+        writer.println(String.format(Locale.US, "  %-20s %7s %9s %9s %9s %9s %11s",
+                "phase", "count", "p50", "p90", "max", "mean", "total"));
+        for (Map.Entry<String, Timer> entry : mTimers.entrySet()) {
+            entry.getValue().dumpSummary(writer, entry.getKey());
+        }
+
+        writer.println();
+        writer.println("Histograms (ms, last " + WINDOW + " samples):");
+        for (Map.Entry<String, Timer> entry : mTimers.entrySet()) {
+            entry.getValue().dumpHistogram(writer, entry.getKey());
+        }
+
+        writer.println();
+        writer.println("Counters:");
+        for (Map.Entry<String, long[]> entry : mCounters.entrySet()) {
+            writer.println(String.format(Locale.US, "  %-28s %d",
+                    entry.getKey(), entry.getValue()[0]));
+        }
+    }
+
+    /**
+     * The recent samples of one phase, in a ring buffer, plus lifetime totals.
+     */
+    private static class Timer {
+        private final long[] mSamples = new long[WINDOW];
+        private int mNext;
+        private int mSize;
+        private long mCount;
+        private long mTotalNanos;
+
+        void add(long nanos) {
+            mSamples[mNext] = nanos;
+            mNext = (mNext + 1) % WINDOW;
+            mSize = Math.min(mSize + 1, WINDOW);
+            mCount++;
+            mTotalNanos += nanos;
+        }
+
+        private long[] sorted() {
+            long[] sorted = Arrays.copyOf(mSamples, mSize);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        void dumpSummary(PrintWriter writer, String phase) {
+            long[] sorted = sorted();
+            long sum = 0;
+            for (long sample : sorted) {
+                sum += sample;
+            }
+            writer.println(String.format(Locale.US,
+                    "  %-20s %7d %9.2f %9.2f %9.2f %9.2f %11.1f",
+                    phase, mCount,
+                    millis(percentile(sorted, 50)),
+                    millis(percentile(sorted, 90)),
+                    millis(sorted[sorted.length - 1]),
+                    millis(sum / sorted.length),
+                    millis(mTotalNanos)));
+        }
+
+        void dumpHistogram(PrintWriter writer, String phase) {
+            int[] buckets = new int[BUCKET_BOUNDS_MILLIS.length + 1];
+            for (int i = 0; i < mSize; i++) {
+                long sampleMillis = mSamples[i] / 1000000;
+                int bucket = 0;
+                while (bucket < BUCKET_BOUNDS_MILLIS.length
+                        && sampleMillis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+                    bucket++;
+                }
+                buckets[bucket]++;
+            }
+            StringBuilder line = new StringBuilder("  ").append(phase).append(':');
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] == 0) {
+                    continue;
+                }
+                line.append(' ');
+                line.append(i < BUCKET_BOUNDS_MILLIS.length
+                        ? "<" + BUCKET_BOUNDS_MILLIS[i]
+                        : ">=" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1]);
+                line.append('=').append(buckets[i]);
+            }
+            writer.println(line);
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
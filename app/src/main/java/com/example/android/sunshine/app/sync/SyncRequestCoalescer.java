@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Merges bursts of immediate sync requests into as few syncs as will satisfy them.
+ *
+ * A request that arrives while a sync is waiting to start joins that sync, since it will read
+ * the settings and fetch the forecast after the request was made.  A request that arrives
+ * while a sync is running can't join it, because the running sync may already have read the
+ * old settings, so it is held back and a single follow-up sync is requested when the running
+ * one finishes, however many requests arrived in the meantime.
+ *
+ * Every request is answered with a ticket.  All the requests that were merged into the same
+ * sync get the same ticket, which callers can check with {@link #isComplete} or wait on with
+ * {@link #await}.  A ticket is only completed by a sync that serves it: one we requested, or a
+ * manual one that covers at least the locations we asked for.  Periodic syncs and narrower
+ * manual ones leave the waiting requests waiting.
+ */
+public class SyncRequestCoalescer {
+    private static final String LOG_TAG = SyncRequestCoalescer.class.getSimpleName();
+
+    // If a requested sync hasn't started after this long the SyncManager may have dropped it,
+    // e.g. while there was no account, so the next request asks again.
+    private static final long REISSUE_AFTER_MILLIS = 60 * 1000;
+
+    private static final SyncRequestCoalescer sInstance = new SyncRequestCoalescer();
+
+    // Generation of the last sync we handed out a ticket for
+    private long mGeneration;
+    // Generation waiting to start, 0 if none
+    private long mPending;
+    private boolean mPendingAllLocations;
+    // Whether the pending sync has been handed to the SyncManager, or waits for the running one
+    private boolean mPendingIssued;
+    private long mPendingIssuedAt;
+    private boolean mSyncing;
+    // Generation the sync in progress serves, only meaningful while mSyncing
+    private long mRunning;
+    // Every ticket up to this one has been served
+    private long mCompleted;
+
+    private int mRequestCount;
+    private int mIssuedCount;
+
+    public static SyncRequestCoalescer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Asks for a sync as soon as possible, unless one that will satisfy the request is already
+     * on its way.
+     *
+     * @param allLocations whether every stored location needs refreshing, not just the
+     *                     preferred one.
+     * @return the ticket of the sync that will serve this request.
+     */
+    public long request(Context context, boolean allLocations) {
+        long ticket;
+        Bundle extras = null;
+        synchronized (this) {
+            mRequestCount++;
+            long now = SystemClock.elapsedRealtime();
+
+            if (mPending != 0) {
+                ticket = mPending;
+                if (!mPendingIssued) {
+                    // Still waiting for the running sync, it can simply be widened
+                    mPendingAllLocations |= allLocations;
+                } else if ((!mPendingAllLocations && allLocations)
+                        || now - mPendingIssuedAt >= REISSUE_AFTER_MILLIS) {
+                    // The issued request can't serve this one, or looks lost.  Ask again, a
+                    // sync that starts afterwards serves everybody waiting.
+                    mPendingAllLocations |= allLocations;
+                    extras = issue(now);
+                }
+            } else {
+                ticket = mPending = ++mGeneration;
+                mPendingAllLocations = allLocations;
+                if (mSyncing) {
+                    mPendingIssued = false;
+                } else {
+                    extras = issue(now);
+                }
+            }
+        }
+        // Finding the account and reaching the SyncManager are binder calls, which other
+        // callers shouldn't have to queue behind
+        if (extras != null) {
+            requestSync(context, extras);
+        }
+        return ticket;
+    }
+
+    /**
+     * Called by the sync adapter when a sync starts, requested through us or not.
+     *
+     * @param extras the extras the sync was requested with.
+     */
+    synchronized void onSyncStarted(Bundle extras) {
+        mSyncing = true;
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL)
+                && !extras.getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_REPLAY);
+        boolean allLocations = extras.getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS);
+        if (mPending != 0 && manual && (allLocations || !mPendingAllLocations)) {
+            mRunning = mPending;
+            mPending = 0;
+        } else if (mPending != 0) {
+            // A periodic sync, a replay or a narrower manual sync can't serve the waiting
+            // requests.  Tickets are served in order, so this one serves none that is waiting.
+            mRunning = mCompleted;
+        } else {
+            // A sync requested behind our back, which serves nobody but takes a generation
+            // so the requests made while it runs wait for the next one
+            mRunning = ++mGeneration;
+        }
+    }
+
+    /**
+     * Called by the sync adapter when a sync finishes, successfully or not.  Requests the
+     * follow-up sync if any requests arrived while it was running.
+     */
+    void onSyncFinished(Context context) {
+        Bundle extras = null;
+        synchronized (this) {
+            mCompleted = Math.max(mCompleted, mRunning);
+            mSyncing = false;
+            notifyAll();
+
+            if (mPending != 0 && !mPendingIssued) {
+                extras = issue(SystemClock.elapsedRealtime());
+            }
+        }
+        if (extras != null) {
+            requestSync(context, extras);
+        }
+    }
+
+    /**
+     * @return whether the sync serving {@code ticket}, or a later one, has finished.
+     */
+    public synchronized boolean isComplete(long ticket) {
+        return mCompleted >= ticket;
+    }
+
+    /**
+     * Blocks until the sync serving {@code ticket} has finished.  Must not be called on the
+     * main thread.
+     *
+     * @return false if it didn't finish within {@code timeoutMillis}.
+     */
+    public synchronized boolean await(long ticket, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        while (mCompleted < ticket) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of sync requests made so far.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return the number of syncs actually asked of the SyncManager so far.
+     */
+    public synchronized int getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * Marks the pending sync as requested.  Called holding the lock, the request itself is
+     * made with {@link #requestSync} once it is released.
+     *
+     * @return the extras to request it with.
+     */
+    private Bundle issue(long now) {
+        mPendingIssued = true;
+        mPendingIssuedAt = now;
+        mIssuedCount++;
+        Log.d(LOG_TAG, "Requesting sync " + mPending + " after " + mRequestCount + " requests");
+
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        if (mPendingAllLocations) {
+            bundle.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+        }
+        return bundle;
+    }
+
+    /**
+     * Hands a sync request to the SyncManager.  Never called holding the lock.
+     */
+    void requestSync(Context context, Bundle extras) {
+        ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(context),
+                context.getString(R.string.content_authority), extras);
+    }
+}
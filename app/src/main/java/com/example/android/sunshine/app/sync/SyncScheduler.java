@@ -0,0 +1,293 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.database.Cursor;
+import android.os.BatteryManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the period of the background sync instead of always using
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL}.
+ *
+ * The decision is based on how often recent syncs actually brought a changed forecast, how
+ * old the newest forecast is, when the weather was last looked at in the app or on the watch,
+ * whether a widget is on the home screen, and whether the device is charging on an unmetered
+ * network.  Once more than one location is stored the periodic sync refreshes all of them, so
+ * switching between them shows a current forecast.  The decision is made again after every
+ * sync and whenever the weather is viewed, and the sync is only rescheduled when the interval
+ * or the locations it covers actually move.  The last decision is kept so it can be
+ * inspected with {@link #getLastDecision}.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_CHANGE_RATE = "change_rate";
+    private static final String KEY_LAST_SUCCESS = "last_success";
+    private static final String KEY_LAST_VIEWED = "last_viewed";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_FLEX = "flex";
+    private static final String KEY_ALL_LOCATIONS = "all_locations";
+    private static final String KEY_REASON = "reason";
+    private static final String KEY_DECIDED_AT = "decided_at";
+
+    // All intervals are in seconds, like the ones given to the SyncManager
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    // Seen within this long counts as being looked at right now
+    private static final long VIEWED_RECENTLY = HOUR_IN_MILLIS;
+    // Not seen for this long counts as idle, typically overnight
+    private static final long IDLE_AFTER = 8 * HOUR_IN_MILLIS;
+
+    // Weight of the latest sync in the moving average of changed syncs
+    private static final float CHANGE_RATE_WEIGHT = 0.25f;
+    private static final float CHANGE_RATE_HIGH = 0.5f;
+    private static final float CHANGE_RATE_LOW = 0.15f;
+    // Assume a typical forecast until we've seen a few syncs
+    private static final float CHANGE_RATE_DEFAULT = 0.3f;
+
+    // Runs the decisions asked for by markViewed, which is called on the main thread
+    private static final ExecutorService sExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SyncScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * A chosen sync period, along with why it was chosen.
+     */
+    public static final class Decision {
+        public final int intervalSeconds;
+        public final int flexSeconds;
+        // Whether the periodic sync refreshes every stored location
+        public final boolean allLocations;
+        public final String reason;
+        public final long decidedAt;
+
+        Decision(int intervalSeconds, int flexSeconds, boolean allLocations, String reason,
+                 long decidedAt) {
+            this.intervalSeconds = intervalSeconds;
+            this.flexSeconds = flexSeconds;
+            this.allLocations = allLocations;
+            this.reason = reason;
+            this.decidedAt = decidedAt;
+        }
+
+        @Override
+        public String toString() {
+            return "every " + intervalSeconds + "s (flex " + flexSeconds + "s"
+                    + (allLocations ? ", all locations" : "") + "): " + reason;
+        }
+    }
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * @return the decision currently in effect, or null if none has been made yet.
+     */
+    public static Decision getLastDecision(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        if (!prefs.contains(KEY_INTERVAL)) {
+            return null;
+        }
+        return new Decision(
+                prefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL),
+                prefs.getInt(KEY_FLEX, SunshineSyncAdapter.SYNC_FLEXTIME),
+                prefs.getBoolean(KEY_ALL_LOCATIONS, false),
+                prefs.getString(KEY_REASON, ""),
+                prefs.getLong(KEY_DECIDED_AT, 0));
+    }
+
+    /**
+     * Records that the weather is on screen, in the app or on the watch face.  Shortens the
+     * sync period soon after if it was stretched while nobody was looking.  Safe to call on the
+     * main thread, the decision is made in the background since it reads the location table
+     * and may talk to the SyncManager.
+     */
+    public static void markViewed(Context context) {
+        getPreferences(context).edit()
+                .putLong(KEY_LAST_VIEWED, System.currentTimeMillis())
+                .apply();
+        final Context applicationContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                reschedule(applicationContext, false);
+            }
+        });
+    }
+
+    /**
+     * Feeds the outcome of a sync of the preferred location into the policy and reschedules.
+     *
+     * @param succeeded whether a current forecast was obtained, even if it was unchanged.
+     * @param changed whether the stored forecast changed.
+     */
+    static void onSyncFinished(Context context, boolean succeeded, boolean changed) {
+        SharedPreferences prefs = getPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        if (succeeded) {
+            float rate = prefs.getFloat(KEY_CHANGE_RATE, CHANGE_RATE_DEFAULT);
+            rate += CHANGE_RATE_WEIGHT * ((changed ? 1f : 0f) - rate);
+            editor.putFloat(KEY_CHANGE_RATE, rate)
+                    .putLong(KEY_LAST_SUCCESS, System.currentTimeMillis());
+        }
+        editor.apply();
+        reschedule(context, false);
+    }
+
+    /**
+     * Makes a fresh decision and hands it to the SyncManager.
+     *
+     * @param force whether to reschedule even if the interval hasn't moved, e.g. for a new
+     *              account that has no periodic sync yet.
+     * @return the decision now in effect.
+     */
+    static synchronized Decision reschedule(Context context, boolean force) {
+        SharedPreferences prefs = getPreferences(context);
+        long now = System.currentTimeMillis();
+        Decision decision = decide(now,
+                prefs.getFloat(KEY_CHANGE_RATE, CHANGE_RATE_DEFAULT),
+                prefs.getLong(KEY_LAST_SUCCESS, 0),
+                prefs.getLong(KEY_LAST_VIEWED, 0),
+                hasWidgets(context),
+                isChargingOnUnmeteredNetwork(context),
+                countStoredLocations(context));
+
+        Decision current = getLastDecision(context);
+        if (!force && current != null && current.intervalSeconds == decision.intervalSeconds
+                && current.allLocations == decision.allLocations) {
+            return current;
+        }
+
+        Log.d(LOG_TAG, "Syncing " + decision);
+        SunshineSyncAdapter.configurePeriodicSync(context, decision.intervalSeconds,
+                decision.flexSeconds, decision.allLocations);
+        prefs.edit()
+                .putInt(KEY_INTERVAL, decision.intervalSeconds)
+                .putInt(KEY_FLEX, decision.flexSeconds)
+                .putBoolean(KEY_ALL_LOCATIONS, decision.allLocations)
+                .putString(KEY_REASON, decision.reason)
+                .putLong(KEY_DECIDED_AT, decision.decidedAt)
+                .apply();
+        return decision;
+    }
+
+    /**
+     * The policy itself, free of any Android state.
+     *
+     * @param changeRate moving average, between 0 and 1, of the syncs that changed the forecast.
+     * @param lastSuccess when a current forecast was last obtained, 0 if never.
+     * @param lastViewed when the weather was last on screen, 0 if never.
+     * @param storedLocations the number of locations in the location table.
+     */
+    static Decision decide(long now, float changeRate, long lastSuccess, long lastViewed,
+                           boolean hasWidgets, boolean chargingUnmetered, int storedLocations) {
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        StringBuilder reason = new StringBuilder();
+
+        if (changeRate >= CHANGE_RATE_HIGH) {
+            interval /= 2;
+            reason.append("forecast changing often");
+        } else if (changeRate <= CHANGE_RATE_LOW) {
+            interval *= 2;
+            reason.append("forecast stable");
+        } else {
+            reason.append("forecast changing normally");
+        }
+
+        long sinceViewed = now - lastViewed;
+        if (sinceViewed < VIEWED_RECENTLY) {
+            interval = Math.min(interval, MIN_INTERVAL);
+            reason.append(", in use");
+        } else if (sinceViewed > IDLE_AFTER && !hasWidgets) {
+            interval *= 2;
+            reason.append(", idle");
+        }
+
+        if (chargingUnmetered) {
+            interval /= 2;
+            reason.append(", charging on unmetered network");
+        }
+
+        // Interval has its final value apart from clamping here, so stale means we've missed
+        // at least two of the syncs we would schedule now.
+        if (lastSuccess > 0 && now - lastSuccess > 2000L * interval) {
+            interval = MIN_INTERVAL;
+            reason.append(", data stale");
+        }
+
+        boolean allLocations = storedLocations > 1;
+        if (allLocations) {
+            reason.append(", ").append(storedLocations).append(" locations");
+        }
+
+        interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        return new Decision(interval, interval / 3, allLocations, reason.toString(), now);
+    }
+
+    private static int countStoredLocations(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean hasWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private static boolean isChargingOnUnmeteredNetwork(Context context) {
+        // ACTION_BATTERY_CHANGED is sticky, so this returns the current state without
+        // registering anything
+        Intent battery = context.getApplicationContext().registerReceiver(
+                null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return cm.getActiveNetworkInfo() != null
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
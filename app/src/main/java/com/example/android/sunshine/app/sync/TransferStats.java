@@ -0,0 +1,45 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes transferred by forecast downloads: what came over the network ("on wire") and what
+ * that expanded to once any content encoding was removed ("decoded").  The totals cover every
+ * download since the process started.
+ */
+public class TransferStats {
+    private static final AtomicLong sTotalWireBytes = new AtomicLong();
+    private static final AtomicLong sTotalDecodedBytes = new AtomicLong();
+    private static final AtomicLong sDownloads = new AtomicLong();
+
+    private static volatile long sLastWireBytes;
+    private static volatile long sLastDecodedBytes;
+
+    static void record(long wireBytes, long decodedBytes) {
+        sLastWireBytes = wireBytes;
+        sLastDecodedBytes = decodedBytes;
+        sTotalWireBytes.addAndGet(wireBytes);
+        sTotalDecodedBytes.addAndGet(decodedBytes);
+        sDownloads.incrementAndGet();
+    }
+
+    public static long getTotalWireBytes() {
+        return sTotalWireBytes.get();
+    }
+
+    public static long getTotalDecodedBytes() {
+        return sTotalDecodedBytes.get();
+    }
+
+    public static long getDownloadCount() {
+        return sDownloads.get();
+    }
+
+    public static long getLastWireBytes() {
+        return sLastWireBytes;
+    }
+
+    public static long getLastDecodedBytes() {
+        return sLastDecodedBytes;
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Where the sync adapter gets its forecasts from.  Sources speak HTTP and answer with
+ * OpenWeatherMap style daily and 3-hour forecasts, so everything after opening the connection (conditional
+ * requests, compression, parsing) is the same whichever source is used.
+ */
+public interface WeatherSource {
+    /**
+     * Creates the request for the daily forecast of a location.  The connection is not
+     * connected yet, so callers can still add request headers.
+     *
+     * @param locationQuery the location setting chosen by the user.
+     * @param numDays the number of days to ask for.
+     */
+    HttpURLConnection openForecast(String locationQuery, int numDays) throws IOException;
+
+    /**
+     * Creates the request for the 5 day forecast of a location in 3 hour steps.  Like
+     * {@link #openForecast}, the connection is not connected yet.
+     */
+    HttpURLConnection openHourlyForecast(String locationQuery) throws IOException;
+}
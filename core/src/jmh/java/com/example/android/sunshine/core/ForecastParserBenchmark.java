@@ -0,0 +1,109 @@
+package com.example.android.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the forecasts of an all-locations sync, one payload per city, the way the sync
+ * adapter does minus the network and the database.  Run with
+ * {@code ./gradlew :core:jmh}, which also reports allocations per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ForecastParserBenchmark {
+
+    // 1 day is the watch's request, 14 the app's and 16 the most OWM sends
+    @Param({"1", "14", "16"})
+    public int days;
+
+    @Param({"8"})
+    public int cities;
+
+    private String[] mDaily;
+    private String[] mHourly;
+    // Kept across invocations, as the sync adapter keeps its batches in a pool
+    private final ForecastBatch mBatch = new ForecastBatch();
+
+    @Setup
+    public void setUp() {
+        mDaily = SyntheticForecasts.dailyForCities(cities, days);
+        mHourly = SyntheticForecasts.hourlyForCities(cities, 40);
+    }
+
+    @Benchmark
+    public void parseDaily(final Blackhole blackhole) throws Exception {
+        ForecastParser parser = new ForecastParser();
+        ForecastParser.Handler handler = new ForecastParser.Handler() {
+            @Override
+            public void onCity(String cityName, double lat, double lon) {
+                blackhole.consume(cityName);
+            }
+
+            @Override
+            public void onDay(ForecastParser.Day day) {
+                blackhole.consume(day.high);
+                blackhole.consume(day.description);
+            }
+        };
+        for (String payload : mDaily) {
+            blackhole.consume(parser.parse(new StringReader(payload), handler));
+        }
+    }
+
+    /*
+        Parses into a ForecastBatch, as the sync adapter does.  Once the batch has grown to
+        the size of a forecast this should show nothing allocated per day.
+     */
+    @Benchmark
+    public void parseDailyIntoBatch(final Blackhole blackhole) throws Exception {
+        ForecastParser parser = new ForecastParser();
+        ForecastParser.Handler handler = new ForecastParser.Handler() {
+            @Override
+            public void onCity(String cityName, double lat, double lon) {
+                blackhole.consume(cityName);
+            }
+
+            @Override
+            public void onDay(ForecastParser.Day day) {
+                mBatch.add(day.index, day);
+            }
+        };
+        for (String payload : mDaily) {
+            blackhole.consume(parser.parse(new StringReader(payload), handler));
+            blackhole.consume(mBatch.size());
+            mBatch.clear();
+        }
+    }
+
+    // The 3 hour forecast always has 40 steps, so it only depends on the number of cities
+    @Benchmark
+    public void parseHourly(final Blackhole blackhole) throws Exception {
+        HourlyForecastParser parser = new HourlyForecastParser();
+        HourlyForecastParser.Handler handler = new HourlyForecastParser.Handler() {
+            @Override
+            public void onCity(String cityName, double lat, double lon) {
+                blackhole.consume(cityName);
+            }
+
+            @Override
+            public void onStep(HourlyForecastParser.Step step) {
+                blackhole.consume(step.temperature);
+                blackhole.consume(step.description);
+            }
+        };
+        for (String payload : mHourly) {
+            blackhole.consume(parser.parse(new StringReader(payload), handler));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.sunshine.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the forecast list does for every row it binds: map the condition, describe it, and
+ * format the date and both temperatures.  Measured over the days of a forecast.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FormattingBenchmark {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String FORMAT_TEMPERATURE = "%1.0f\u00B0";
+    private static final long NOW = 1420070400000L;
+
+    @Param({"1", "14", "16"})
+    public int days;
+
+    private int[] mWeatherIds;
+    private double[] mTemperatures;
+    private FriendlyDates mFriendlyDates;
+
+    // English stand-ins for the app's resources
+    private final ConditionStrings mConditionStrings = new ConditionStrings() {
+        @Override
+        public String getDescription(int descriptionId) {
+            return "Condition " + descriptionId;
+        }
+
+        @Override
+        public String getUnknownDescription(int weatherId) {
+            return "Unknown (" + weatherId + ")";
+        }
+    };
+
+    private final DayStrings mDayStrings = new DayStrings() {
+        @Override
+        public String getToday() {
+            return "Today";
+        }
+
+        @Override
+        public String getTomorrow() {
+            return "Tomorrow";
+        }
+
+        @Override
+        public String formatFullFriendlyDate(String day, String monthDay) {
+            return day + ", " + monthDay;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(days);
+        mWeatherIds = new int[days];
+        mTemperatures = new double[days];
+        for (int i = 0; i < days; i++) {
+            mWeatherIds[i] = 200 + random.nextInt(800);
+            mTemperatures[i] = random.nextInt(300) / 10.0 - 5;
+        }
+        mFriendlyDates = new FriendlyDates(mDayStrings, TimeZone.getTimeZone("UTC"));
+    }
+
+    @Benchmark
+    public void conditions(Blackhole blackhole) {
+        for (int weatherId : mWeatherIds) {
+            blackhole.consume(WeatherCondition.forWeatherId(weatherId));
+            blackhole.consume(WeatherCondition.describe(weatherId, mConditionStrings));
+        }
+    }
+
+    @Benchmark
+    public void temperatures(Blackhole blackhole) {
+        for (double temperature : mTemperatures) {
+            blackhole.consume(Temperatures.format(FORMAT_TEMPERATURE, temperature, true));
+            blackhole.consume(Temperatures.format(FORMAT_TEMPERATURE, temperature, false));
+        }
+    }
+
+    @Benchmark
+    public void dates(Blackhole blackhole) {
+        for (int i = 0; i < days; i++) {
+            blackhole.consume(mFriendlyDates.getFriendlyDayString(
+                    NOW + i * DAY_IN_MILLIS, NOW, i == 0));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.android.sunshine.core;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds well formed OWM responses for the benchmarks, shaped like the ones the app's fake
+ * weather server sends.  The same arguments always give the same payload.
+ */
+public class SyntheticForecasts {
+
+    /**
+     * @return one daily forecast of {@code days} days for each of {@code cities} cities.
+     */
+    public static String[] dailyForCities(int cities, int days) {
+        String[] payloads = new String[cities];
+        for (int i = 0; i < cities; i++) {
+            payloads[i] = daily("city" + i, days);
+        }
+        return payloads;
+    }
+
+    /**
+     * @return one 3 hour forecast of {@code steps} steps for each of {@code cities} cities.
+     */
+    public static String[] hourlyForCities(int cities, int steps) {
+        String[] payloads = new String[cities];
+        for (int i = 0; i < cities; i++) {
+            payloads[i] = hourly("city" + i, 1420070400L, steps);
+        }
+        return payloads;
+    }
+
+    public static String daily(String location, int days) {
+        Random random = new Random(location.hashCode());
+        StringBuilder json = new StringBuilder(512 + days * 256);
+        json.append("{\"city\":{\"id\":").append(Math.abs(location.hashCode()))
+                .append(",\"name\":\"Fake ").append(location)
+                .append("\",\"coord\":{\"lon\":").append(random.nextInt(360) - 180)
+                .append(".25,\"lat\":").append(random.nextInt(180) - 90)
+                .append(".5},\"country\":\"XX\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            double low = random.nextInt(300) / 10.0 - 5;
+            double high = low + random.nextInt(100) / 10.0;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Fake\","
+                            + "\"description\":\"synthetic weather\",\"icon\":\"01d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1420070400L + i * 86400L, high, low, high, low, high, low,
+                    990 + random.nextInt(4000) / 100.0, random.nextInt(100),
+                    200 + random.nextInt(600), random.nextInt(2000) / 100.0,
+                    random.nextInt(360), random.nextInt(100)));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public static String hourly(String location, long startSeconds, int steps) {
+        Random random = new Random(location.hashCode());
+        StringBuilder json = new StringBuilder(512 + steps * 384);
+        json.append("{\"cod\":\"200\",\"message\":0.01,\"cnt\":").append(steps)
+                .append(",\"list\":[");
+        for (int i = 0; i < steps; i++) {
+            double temp = random.nextInt(300) / 10.0 - 5;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"main\":{\"temp\":%.2f,\"temp_min\":%.2f,"
+                            + "\"temp_max\":%.2f,\"pressure\":%.2f,\"humidity\":%d},"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Fake\","
+                            + "\"description\":\"synthetic weather\",\"icon\":\"01d\"}],"
+                            + "\"clouds\":{\"all\":%d},\"wind\":{\"speed\":%.2f,\"deg\":%d}",
+                    startSeconds + i * 3 * 3600L, temp, temp, temp,
+                    990 + random.nextInt(4000) / 100.0, random.nextInt(100),
+                    200 + random.nextInt(600), random.nextInt(100),
+                    random.nextInt(2000) / 100.0, random.nextInt(360)));
+            if (i % 4 == 0) {
+                json.append(String.format(Locale.US, ",\"rain\":{\"3h\":%.2f}",
+                        random.nextInt(500) / 100.0));
+            }
+            json.append('}');
+        }
+        json.append("],\"city\":{\"id\":").append(Math.abs(location.hashCode()))
+                .append(",\"name\":\"Fake ").append(location)
+                .append("\",\"coord\":{\"lat\":").append(random.nextInt(180) - 90)
+                .append(".5,\"lon\":").append(random.nextInt(360) - 180)
+                .append(".25},\"country\":\"XX\"}}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.android.sunshine.core;
+
+/**
+ * Supplies the words for {@link WeatherCondition#describe}, e.g. from Android resources.
+ */
+public interface ConditionStrings {
+    /**
+     * @param descriptionId a code as returned by {@link WeatherCondition#getDescriptionId}.
+     */
+    String getDescription(int descriptionId);
+
+    /**
+     * @param weatherId a code that has no description of its own.
+     */
+    String getUnknownDescription(int weatherId);
+}
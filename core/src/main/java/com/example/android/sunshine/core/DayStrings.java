@@ -0,0 +1,15 @@
+package com.example.android.sunshine.core;
+
+/**
+ * Supplies the words for {@link FriendlyDates}, e.g. from Android resources.
+ */
+public interface DayStrings {
+    String getToday();
+
+    String getTomorrow();
+
+    /**
+     * @return the day and the month and day together, e.g. "Today, June 24".
+     */
+    String formatFullFriendlyDate(String day, String monthDay);
+}
@@ -0,0 +1,132 @@
+package com.example.android.sunshine.core;
+
+import java.util.Arrays;
+
+/**
+ * Forecast days waiting to be written, held column by column in parallel primitive arrays
+ * rather than as a map of boxed values per day.  Adding a day copies its fields into the next
+ * row, so the parser's reused {@link ForecastParser.Day} can be handed straight over, and
+ * {@link #clear} keeps the arrays for the next forecast.  Once a batch has grown to the size
+ * of a forecast, filling it again allocates nothing.
+ *
+ * Not thread safe.  Each sync worker fills a batch of its own.
+ */
+public class ForecastBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+    private long[] mDates;
+    private double[] mPressures;
+    private int[] mHumidities;
+    private double[] mWindSpeeds;
+    private double[] mWindDirections;
+    private double[] mHighs;
+    private double[] mLows;
+    private String[] mDescriptions;
+    private int[] mWeatherIds;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        mDates = new long[capacity];
+        mPressures = new double[capacity];
+        mHumidities = new int[capacity];
+        mWindSpeeds = new double[capacity];
+        mWindDirections = new double[capacity];
+        mHighs = new double[capacity];
+        mLows = new double[capacity];
+        mDescriptions = new String[capacity];
+        mWeatherIds = new int[capacity];
+    }
+
+    /**
+     * Copies a parsed day into a new row.
+     *
+     * @param date the normalized date of the day, in milliseconds.
+     * @return the index of the row.
+     */
+    public int add(long date, ForecastParser.Day day) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        int row = mSize++;
+        mDates[row] = date;
+        mPressures[row] = day.pressure;
+        mHumidities[row] = day.humidity;
+        mWindSpeeds[row] = day.windSpeed;
+        mWindDirections[row] = day.windDirection;
+        mHighs[row] = day.high;
+        mLows[row] = day.low;
+        mDescriptions[row] = day.description;
+        mWeatherIds[row] = day.weatherId;
+        return row;
+    }
+
+    /**
+     * Empties the batch, keeping its arrays.
+     */
+    public void clear() {
+        // Let the descriptions go, the primitives are simply overwritten
+        Arrays.fill(mDescriptions, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mDates.length;
+    }
+
+    public long getDate(int row) {
+        return mDates[row];
+    }
+
+    public double getPressure(int row) {
+        return mPressures[row];
+    }
+
+    public int getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    public double getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    public double getWindDirection(int row) {
+        return mWindDirections[row];
+    }
+
+    public double getHigh(int row) {
+        return mHighs[row];
+    }
+
+    public double getLow(int row) {
+        return mLows[row];
+    }
+
+    public String getDescription(int row) {
+        return mDescriptions[row];
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mWindDirections = Arrays.copyOf(mWindDirections, capacity);
+        mHighs = Arrays.copyOf(mHighs, capacity);
+        mLows = Arrays.copyOf(mLows, capacity);
+        mDescriptions = Arrays.copyOf(mDescriptions, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.android.sunshine.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast.
+ *
+ * Instead of building a JSONObject tree of the whole response, the stream is read token by
+ * token and every forecast day is handed to a {@link Handler} as soon as its closing brace has
+ * been read.  Only one day is held in memory at a time, so the heap used by the parser does not
+ * grow with the number of days requested.
+ */
+public class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits recording which of the required fields of a day have been seen
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+
+    /**
+     * Receives the parsed forecast.  {@link #onCity} is usually called before the first
+     * {@link #onDay}, but OWM does not guarantee the order of the top level keys, so handlers
+     * must cope with days arriving first.
+     */
+    public interface Handler {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param day the values for a single forecast day.  The instance is reused for the next
+         *            day, so handlers must copy what they need before returning.
+         */
+        void onDay(Day day);
+    }
+
+    /**
+     * The values of one forecast day.  Reused between calls to {@link Handler#onDay}.
+     */
+    public static final class Day {
+        public int index;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+
+        int fields;
+
+        void reset(int index) {
+            this.index = index;
+            fields = 0;
+            description = null;
+        }
+    }
+
+    /**
+     * Thrown when the response is not a forecast we understand.
+     */
+    public static class ForecastParseException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public ForecastParseException(String message) {
+            super(message);
+        }
+
+        public ForecastParseException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final Day mDay = new Day();
+
+    /**
+     * Reads a complete forecast response from {@code in}.  The reader is not closed.
+     *
+     * @return the message code sent by OWM, or {@link HttpURLConnection#HTTP_OK} when the
+     * response did not contain one.
+     * @throws IOException if the underlying stream fails, or is empty.
+     * @throws ForecastParseException if the response isn't a well formed forecast.
+     */
+    public int parse(Reader in, Handler handler) throws IOException, ForecastParseException {
+        JsonReader reader = new JsonReader(in);
+        int messageCode = HttpURLConnection.HTTP_OK;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_CITY.equals(name)) {
+                    readCity(reader, handler);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, handler);
+                } else if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends this as a string for successful responses and as a number
+                    // for some errors, nextInt() copes with both.
+                    messageCode = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new ForecastParseException(e.getMessage(), e);
+        }
+        return messageCode;
+    }
+
+    private void readCity(JsonReader reader, Handler handler)
+            throws IOException, ForecastParseException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean hasCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                hasCoord = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !hasCoord) {
+            throw new ForecastParseException("Incomplete city in forecast");
+        }
+        handler.onCity(cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader, Handler handler)
+            throws IOException, ForecastParseException {
+        final Day day = mDay;
+        int index = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            day.reset(index);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    day.pressure = reader.nextDouble();
+                    day.fields |= FIELD_PRESSURE;
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    // A whole percentage, but not always sent as one
+                    day.humidity = (int) reader.nextDouble();
+                    day.fields |= FIELD_HUMIDITY;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    day.windSpeed = reader.nextDouble();
+                    day.fields |= FIELD_WINDSPEED;
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    day.windDirection = reader.nextDouble();
+                    day.fields |= FIELD_WIND_DIRECTION;
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    readTemperature(reader, day);
+                } else if (OWM_WEATHER.equals(name)) {
+                    readWeather(reader, day);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (day.fields != FIELDS_REQUIRED) {
+                throw new ForecastParseException("Incomplete forecast for day " + index);
+            }
+            handler.onDay(day);
+            index++;
+        }
+        reader.endArray();
+    }
+
+    // Temperatures are in a child object called "temp".  Try not to name variables
+    // "temp" when working with temperature.  It confuses everybody.
+    private static void readTemperature(JsonReader reader, Day day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+                day.fields |= FIELD_MAX;
+            } else if (OWM_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+                day.fields |= FIELD_MIN;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Description is in a child array called "weather", which is 1 element long.
+    // That element also contains a weather code.
+    private static void readWeather(JsonReader reader, Day day) throws IOException {
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                    day.fields |= FIELD_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = reader.nextInt();
+                    day.fields |= FIELD_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+}
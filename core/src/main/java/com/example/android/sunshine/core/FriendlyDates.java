@@ -0,0 +1,124 @@
+package com.example.android.sunshine.core;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Turns the dates of the forecast into something to display to users.  As classy and polished
+ * a user experience as "20140102" is, we can do better.
+ *
+ * Instances hold on to their date formats, so they aren't safe to share between threads.
+ */
+public class FriendlyDates {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    // The Julian day of the epoch, as used by android.text.format.Time
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+
+    private final DayStrings mStrings;
+    private final TimeZone mTimeZone;
+
+    // Created when first needed
+    private SimpleDateFormat mShortenedDateFormat;
+    private SimpleDateFormat mDayFormat;
+    private SimpleDateFormat mMonthDayFormat;
+
+    public FriendlyDates(DayStrings strings) {
+        this(strings, TimeZone.getDefault());
+    }
+
+    public FriendlyDates(DayStrings strings, TimeZone timeZone) {
+        mStrings = strings;
+        mTimeZone = timeZone;
+    }
+
+    /**
+     * Works like android.text.format.Time.getJulianDay.
+     *
+     * @param gmtoff the offset of the local time zone from UTC, in seconds.
+     */
+    public static int getJulianDay(long millis, long gmtoff) {
+        long offsetMillis = gmtoff * 1000;
+        return (int) ((millis + offsetMillis) / DAY_IN_MILLIS) + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * The day string for forecast uses the following logic:
+     * For today: "Today, June 8"
+     * For tomorrow:  "Tomorrow"
+     * For the next 5 days: "Wednesday" (just the day name)
+     * For all days after that: "Mon Jun 8"
+     *
+     * @param dateInMillis The date in milliseconds
+     * @param now the current time, in milliseconds
+     */
+    public String getFriendlyDayString(long dateInMillis, long now, boolean displayLongToday) {
+        long gmtoff = getGmtOffset(now);
+        int julianDay = getJulianDay(dateInMillis, gmtoff);
+        int currentJulianDay = getJulianDay(now, gmtoff);
+
+        // If the date we're building the String for is today's date, the format
+        // is "Today, June 24"
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return mStrings.formatFullFriendlyDate(
+                    mStrings.getToday(), getFormattedMonthDay(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            // If the input date is less than a week in the future, just return the day name.
+            return getDayName(dateInMillis, now);
+        } else {
+            // Otherwise, use the form "Mon Jun 3"
+            if (mShortenedDateFormat == null) {
+                mShortenedDateFormat = createFormat("EEE MMM dd");
+            }
+            return mShortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    /**
+     * @return the day name along with the month and day, e.g. "Wednesday, June 24".
+     */
+    public String getFullFriendlyDayString(long dateInMillis, long now) {
+        return mStrings.formatFullFriendlyDate(
+                getDayName(dateInMillis, now), getFormattedMonthDay(dateInMillis));
+    }
+
+    /**
+     * Given a day, returns just the name to use for that day.
+     * E.g "today", "tomorrow", "wednesday".
+     */
+    public String getDayName(long dateInMillis, long now) {
+        long gmtoff = getGmtOffset(now);
+        int julianDay = getJulianDay(dateInMillis, gmtoff);
+        int currentJulianDay = getJulianDay(now, gmtoff);
+        if (julianDay == currentJulianDay) {
+            return mStrings.getToday();
+        } else if (julianDay == currentJulianDay + 1) {
+            return mStrings.getTomorrow();
+        } else {
+            // Otherwise, the format is just the day of the week (e.g "Wednesday".
+            if (mDayFormat == null) {
+                mDayFormat = createFormat("EEEE");
+            }
+            return mDayFormat.format(dateInMillis);
+        }
+    }
+
+    /**
+     * @return The day in the form of a string formatted "December 6"
+     */
+    public String getFormattedMonthDay(long dateInMillis) {
+        if (mMonthDayFormat == null) {
+            mMonthDayFormat = createFormat("MMMM dd");
+        }
+        return mMonthDayFormat.format(dateInMillis);
+    }
+
+    private long getGmtOffset(long now) {
+        return mTimeZone.getOffset(now) / 1000;
+    }
+
+    private SimpleDateFormat createFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(mTimeZone);
+        return format;
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.android.sunshine.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap 5 day / 3 hour forecast.  Works like
+ * {@link ForecastParser}: every step is handed to a {@link Handler} as soon as it has been
+ * read, and only one step is held in memory at a time.
+ */
+public class HourlyForecastParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Each step is an element of the "list" array
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind is a child object of its own
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // Rain and snow are only there when some is expected, with the amount for the step in "3h"
+    private static final String OWM_RAIN = "rain";
+    private static final String OWM_SNOW = "snow";
+    private static final String OWM_THREE_HOURS = "3h";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits recording which of the required fields of a step have been seen
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMPERATURE = 1 << 1;
+    private static final int FIELD_PRESSURE = 1 << 2;
+    private static final int FIELD_HUMIDITY = 1 << 3;
+    private static final int FIELD_WINDSPEED = 1 << 4;
+    private static final int FIELD_WIND_DIRECTION = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+
+    /**
+     * Receives the parsed forecast.  As with the daily forecast, {@link #onCity} may come
+     * before or after the steps.
+     */
+    public interface Handler {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param step the values for a single 3 hour step.  The instance is reused for the next
+         *             step, so handlers must copy what they need before returning.
+         */
+        void onStep(Step step);
+    }
+
+    /**
+     * The values of one 3 hour step.  Reused between calls to {@link Handler#onStep}.
+     */
+    public static final class Step {
+        // start of the step, in milliseconds since the epoch
+        public long time;
+        public double temperature;
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double precipitation;
+        public String description;
+        public int weatherId;
+
+        int fields;
+
+        void reset() {
+            fields = 0;
+            precipitation = 0;
+            description = null;
+        }
+    }
+
+    private final Step mStep = new Step();
+
+    /**
+     * Reads a complete forecast response from {@code in}.  The reader is not closed.
+     *
+     * @return the message code sent by OWM, or {@link HttpURLConnection#HTTP_OK} when the
+     * response did not contain one.
+     * @throws IOException if the underlying stream fails, or is empty.
+     * @throws ForecastParser.ForecastParseException if the response isn't a well formed
+     * forecast.
+     */
+    public int parse(Reader in, Handler handler)
+            throws IOException, ForecastParser.ForecastParseException {
+        JsonReader reader = new JsonReader(in);
+        int messageCode = HttpURLConnection.HTTP_OK;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_CITY.equals(name)) {
+                    readCity(reader, handler);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, handler);
+                } else if (OWM_MESSAGE_CODE.equals(name)) {
+                    messageCode = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw new ForecastParser.ForecastParseException(e.getMessage(), e);
+        }
+        return messageCode;
+    }
+
+    private void readCity(JsonReader reader, Handler handler)
+            throws IOException, ForecastParser.ForecastParseException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean hasCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                hasCoord = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !hasCoord) {
+            throw new ForecastParser.ForecastParseException("Incomplete city in forecast");
+        }
+        handler.onCity(cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader, Handler handler)
+            throws IOException, ForecastParser.ForecastParseException {
+        final Step step = mStep;
+        int index = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            step.reset();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_TIME.equals(name)) {
+                    step.time = reader.nextLong() * 1000;
+                    step.fields |= FIELD_TIME;
+                } else if (OWM_MAIN.equals(name)) {
+                    readMain(reader, step);
+                } else if (OWM_WIND.equals(name)) {
+                    readWind(reader, step);
+                } else if (OWM_RAIN.equals(name) || OWM_SNOW.equals(name)) {
+                    step.precipitation += readThreeHours(reader);
+                } else if (OWM_WEATHER.equals(name)) {
+                    readWeather(reader, step);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (step.fields != FIELDS_REQUIRED) {
+                throw new ForecastParser.ForecastParseException(
+                        "Incomplete forecast for step " + index);
+            }
+            handler.onStep(step);
+            index++;
+        }
+        reader.endArray();
+    }
+
+    private static void readMain(JsonReader reader, Step step) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TEMPERATURE.equals(name)) {
+                step.temperature = reader.nextDouble();
+                step.fields |= FIELD_TEMPERATURE;
+            } else if (OWM_PRESSURE.equals(name)) {
+                step.pressure = reader.nextDouble();
+                step.fields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // A whole percentage, but not always sent as one
+                step.humidity = (int) reader.nextDouble();
+                step.fields |= FIELD_HUMIDITY;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readWind(JsonReader reader, Step step) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_WINDSPEED.equals(name)) {
+                step.windSpeed = reader.nextDouble();
+                step.fields |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                step.windDirection = reader.nextDouble();
+                step.fields |= FIELD_WIND_DIRECTION;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // OWM sometimes sends an empty object when there is no rain or snow
+    private static double readThreeHours(JsonReader reader) throws IOException {
+        double amount = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_THREE_HOURS.equals(name)) {
+                amount = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return amount;
+    }
+
+    // Description is in a child array called "weather", which is 1 element long.
+    // That element also contains a weather code.
+    private static void readWeather(JsonReader reader, Step step) throws IOException {
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            first = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    step.description = reader.nextString();
+                    step.fields |= FIELD_DESCRIPTION;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    step.weatherId = reader.nextInt();
+                    step.fields |= FIELD_WEATHER_ID;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.android.sunshine.core;
+
+/**
+ * Temperatures are stored in Celsius, and converted for display only.
+ */
+public class Temperatures {
+
+    public static double toFahrenheit(double celsius) {
+        return (celsius * 1.8) + 32;
+    }
+
+    /**
+     * @param format the format of a temperature, e.g. "%1.0f\u00B0".
+     * @param celsius the stored temperature
+     * @param metric whether the user prefers Celsius
+     */
+    public static String format(String format, double celsius, boolean metric) {
+        // For presentation, the format assumes the user doesn't care about tenths of a degree.
+        return String.format(format, metric ? celsius : toFahrenheit(celsius));
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.sunshine.core;
+
+import java.util.Locale;
+
+/**
+ * The kinds of weather Sunshine has icons and artwork for, and the mapping from OpenWeatherMap
+ * condition codes to them.  The app and the watch face each map these to their own drawables.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public enum WeatherCondition {
+    STORM("storm"),
+    LIGHT_RAIN("light_rain"),
+    RAIN("rain"),
+    SNOW("snow"),
+    FOG("fog"),
+    CLEAR("clear"),
+    LIGHT_CLOUDS("light_clouds"),
+    CLOUDS("clouds");
+
+    // Condition codes are all below 1000, so the mapping is a straight table lookup
+    private static final int MAX_WEATHER_ID = 999;
+    private static final WeatherCondition[] sByWeatherId = new WeatherCondition[MAX_WEATHER_ID + 1];
+
+    // The codes with a description of their own, besides the 2xx and 3xx ranges which share one
+    private static final int[] DESCRIBED_IDS = {
+            500, 501, 502, 503, 504, 511, 520, 531,
+            600, 601, 602, 611, 612, 615, 616, 620, 621, 622,
+            701, 711, 721, 731, 741, 751, 761, 762, 771, 781,
+            800, 801, 802, 803, 804,
+            900, 901, 902, 903, 904, 905, 906,
+            951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962};
+    private static final boolean[] sDescribed = new boolean[MAX_WEATHER_ID + 1];
+
+    static {
+        fill(200, 232, STORM);
+        fill(300, 321, LIGHT_RAIN);
+        fill(500, 504, RAIN);
+        fill(511, 511, SNOW);
+        fill(520, 531, RAIN);
+        fill(600, 622, SNOW);
+        fill(701, 761, FOG);
+        // 761 has always been caught by the fog range, leaving 781 the only storm here
+        fill(781, 781, STORM);
+        fill(800, 800, CLEAR);
+        fill(801, 801, LIGHT_CLOUDS);
+        fill(802, 804, CLOUDS);
+
+        for (int weatherId : DESCRIBED_IDS) {
+            sDescribed[weatherId] = true;
+        }
+    }
+
+    private static void fill(int first, int last, WeatherCondition condition) {
+        for (int weatherId = first; weatherId <= last; weatherId++) {
+            sByWeatherId[weatherId] = condition;
+        }
+    }
+
+    /**
+     * The name of the artwork, as used by the art packs.
+     */
+    public final String artName;
+
+    WeatherCondition(String artName) {
+        this.artName = artName;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the condition, or null if no relation is found.
+     */
+    public static WeatherCondition forWeatherId(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_WEATHER_ID ? sByWeatherId[weatherId] : null;
+    }
+
+    /**
+     * @param artUrlFormat the url of an art pack, with a %s for the name of the artwork.
+     * @param weatherId from OpenWeatherMap API response
+     * @return url for the corresponding weather artwork. null if no relation is found.
+     */
+    public static String getArtUrl(String artUrlFormat, int weatherId) {
+        WeatherCondition condition = forWeatherId(weatherId);
+        return condition != null ? String.format(Locale.US, artUrlFormat, condition.artName) : null;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the code whose description fits the condition, which is 200 for all of the 2xx
+     * codes, 300 for all of the 3xx codes and the code itself for the others.  -1 if there
+     * is no description for the code.
+     */
+    public static int getDescriptionId(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return 200;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return 300;
+        } else if (weatherId >= 0 && weatherId <= MAX_WEATHER_ID && sDescribed[weatherId]) {
+            return weatherId;
+        }
+        return -1;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the description of the condition, in the words of {@code strings}.
+     */
+    public static String describe(int weatherId, ConditionStrings strings) {
+        int descriptionId = getDescriptionId(weatherId);
+        return descriptionId != -1
+                ? strings.getDescription(descriptionId)
+                : strings.getUnknownDescription(weatherId);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestForecastBatch {
+
+    private static ForecastParser.Day day(int index) {
+        ForecastParser.Day day = new ForecastParser.Day();
+        day.reset(index);
+        day.pressure = 1000 + index;
+        day.humidity = 40 + index;
+        day.windSpeed = 1.5 * index;
+        day.windDirection = 10 * index;
+        day.high = 20 + index;
+        day.low = 10 + index;
+        day.description = "Clear " + index;
+        day.weatherId = 800 + index % 5;
+        return day;
+    }
+
+    @Test
+    public void testAdd() {
+        ForecastBatch batch = new ForecastBatch();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, batch.add(1000L * i, day(i)));
+        }
+
+        assertEquals(3, batch.size());
+        assertEquals(2000L, batch.getDate(2));
+        assertEquals(1002, batch.getPressure(2), 0);
+        assertEquals(42, batch.getHumidity(2));
+        assertEquals(3, batch.getWindSpeed(2), 0);
+        assertEquals(20, batch.getWindDirection(2), 0);
+        assertEquals(22, batch.getHigh(2), 0);
+        assertEquals(12, batch.getLow(2), 0);
+        assertEquals("Clear 2", batch.getDescription(2));
+        assertEquals(802, batch.getWeatherId(2));
+    }
+
+    /*
+        The parser reuses a single Day, so the batch has to copy its fields rather than keep it.
+     */
+    @Test
+    public void testAddCopiesTheDay() {
+        ForecastBatch batch = new ForecastBatch();
+        ForecastParser.Day day = day(1);
+        batch.add(0L, day);
+        day.high = -5;
+        day.description = "Snow";
+
+        assertEquals(21, batch.getHigh(0), 0);
+        assertEquals("Clear 1", batch.getDescription(0));
+    }
+
+    /*
+        A batch grows to fit a forecast once and then keeps its arrays for the next ones.
+     */
+    @Test
+    public void testGrowAndClear() {
+        ForecastBatch batch = new ForecastBatch(4);
+        for (int i = 0; i < 16; i++) {
+            batch.add(i, day(i));
+        }
+        assertEquals(16, batch.size());
+        assertEquals(16, batch.capacity());
+        assertEquals(15L, batch.getDate(15));
+        assertEquals("Clear 15", batch.getDescription(15));
+
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(16, batch.capacity());
+        assertNull(batch.getDescription(0));
+
+        ForecastParser.Day day = day(7);
+        batch.add(7L, day);
+        assertSame(day.description, batch.getDescription(0));
+        assertEquals(16, batch.capacity());
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestForecastParser {
+    private static final String CITY =
+            "\"city\":{\"id\":5845459,\"name\":\"North Pole\","
+                    + "\"coord\":{\"lon\":-147.35,\"lat\":64.75},\"country\":\"US\"}";
+
+    private static String day(int index) {
+        return "{\"dt\":" + (1420070400 + index * 86400) + ","
+                + "\"temp\":{\"day\":" + (20 + index) + ",\"min\":" + (10 + index)
+                + ",\"max\":" + (25 + index) + ",\"night\":9,\"eve\":18,\"morn\":12},"
+                + "\"pressure\":" + (1000.5 + index) + ",\"humidity\":" + (60 + index) + ","
+                + "\"weather\":[{\"id\":" + (800 + index) + ",\"main\":\"Clear\","
+                + "\"description\":\"sky is clear\",\"icon\":\"01d\"}],"
+                + "\"speed\":" + (1.5 + index) + ",\"deg\":" + (90 + index) + ",\"clouds\":0}";
+    }
+
+    static class RecordingHandler implements ForecastParser.Handler {
+        String cityName;
+        double lat;
+        double lon;
+        final ForecastBatch days = new ForecastBatch();
+        final List<Integer> indexes = new ArrayList<>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(ForecastParser.Day day) {
+            indexes.add(day.index);
+            days.add(day.index, day);
+        }
+    }
+
+    private static RecordingHandler parse(String json, int expectedCode)
+            throws IOException, ForecastParser.ForecastParseException {
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(expectedCode, new ForecastParser().parse(new StringReader(json), handler));
+        return handler;
+    }
+
+    private static void assertParseFails(String json) throws IOException {
+        try {
+            new ForecastParser().parse(new StringReader(json), new RecordingHandler());
+            fail("Error: " + json + " was parsed");
+        } catch (ForecastParser.ForecastParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testForecast() throws Exception {
+        RecordingHandler handler = parse("{" + CITY + ",\"cod\":\"200\",\"message\":0.01,"
+                + "\"cnt\":3,\"list\":[" + day(0) + "," + day(1) + "," + day(2) + "]}",
+                HttpURLConnection.HTTP_OK);
+
+        assertEquals("North Pole", handler.cityName);
+        assertEquals(64.75, handler.lat, 0);
+        assertEquals(-147.35, handler.lon, 0);
+        assertEquals(3, handler.days.size());
+        assertEquals(2, (int) handler.indexes.get(2));
+        assertEquals(1002.5, handler.days.getPressure(2), 0);
+        assertEquals(62, handler.days.getHumidity(2));
+        assertEquals(3.5, handler.days.getWindSpeed(2), 0);
+        assertEquals(92, handler.days.getWindDirection(2), 0);
+        assertEquals(27, handler.days.getHigh(2), 0);
+        assertEquals(12, handler.days.getLow(2), 0);
+        assertEquals("Clear", handler.days.getDescription(2));
+        assertEquals(802, handler.days.getWeatherId(2));
+    }
+
+    /*
+        OWM doesn't promise the order of the top level keys, so the days may come before the
+        city.
+     */
+    @Test
+    public void testDaysBeforeCity() throws Exception {
+        RecordingHandler handler = parse("{\"list\":[" + day(0) + "]," + CITY + "}",
+                HttpURLConnection.HTTP_OK);
+        assertEquals("North Pole", handler.cityName);
+        assertEquals(1, handler.days.size());
+    }
+
+    @Test
+    public void testErrorCode() throws Exception {
+        RecordingHandler handler = parse("{\"cod\":\"404\",\"message\":\"city not found\"}",
+                HttpURLConnection.HTTP_NOT_FOUND);
+        assertNull(handler.cityName);
+        assertEquals(0, handler.days.size());
+
+        // Some errors send the code as a number
+        parse("{\"cod\":401,\"message\":\"Invalid API key\"}", HttpURLConnection.HTTP_UNAUTHORIZED);
+    }
+
+    /*
+        Fields we don't read, nested or not, are skipped, and only the first weather of a day
+        counts.
+     */
+    @Test
+    public void testUnknownFields() throws Exception {
+        String day = "{\"rain\":{\"3h\":[1,2,{\"deep\":null}]},\"temp\":{\"min\":1,\"max\":2,"
+                + "\"extra\":{\"a\":[true]}},\"pressure\":1000,\"humidity\":50,\"speed\":1,"
+                + "\"deg\":2,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"more\":{}},"
+                + "{\"id\":800,\"main\":\"Clear\"}],\"unknown\":\"value\"}";
+        RecordingHandler handler = parse("{\"extra\":{\"list\":[1,2]}," + CITY
+                + ",\"list\":[" + day + "],\"trailing\":[{\"cod\":1}]}", HttpURLConnection.HTTP_OK);
+
+        assertEquals(1, handler.days.size());
+        assertEquals("Rain", handler.days.getDescription(0));
+        assertEquals(500, handler.days.getWeatherId(0));
+        assertEquals(2, handler.days.getHigh(0), 0);
+    }
+
+    /*
+        A fractional humidity is cut to a whole percentage, as JSONObject.getInt did.
+     */
+    @Test
+    public void testFractionalHumidity() throws Exception {
+        RecordingHandler handler = parse("{" + CITY + ",\"list\":["
+                + day(0).replace("\"humidity\":60", "\"humidity\":73.8") + "]}",
+                HttpURLConnection.HTTP_OK);
+        assertEquals(73, handler.days.getHumidity(0));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        // Not JSON
+        assertParseFails("<html>Bad gateway</html>");
+        // A string where a number belongs
+        assertParseFails("{" + CITY + ",\"list\":["
+                + day(0).replace("\"humidity\":60", "\"humidity\":\"high\"") + "]}");
+        // A day without its temperatures
+        assertParseFails("{" + CITY + ",\"list\":[{\"pressure\":1000,\"humidity\":50}]}");
+        // A city without coordinates
+        assertParseFails("{\"city\":{\"name\":\"Nowhere\"}}");
+        // An array instead of the object
+        assertParseFails("[" + day(0) + "]");
+    }
+
+    /*
+        A response that ends early is a failed download rather than a bad forecast.
+     */
+    @Test
+    public void testTruncated() throws Exception {
+        for (String json : new String[]{"", "{" + CITY + ",\"list\":[" + day(0).substring(0, 40)}) {
+            try {
+                new ForecastParser().parse(new StringReader(json), new RecordingHandler());
+                fail("Error: " + json + " was parsed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.sunshine.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestFriendlyDates {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000;
+    // Thursday, January 1 2015 at noon, UTC
+    private static final long NOW = 1420070400000L + 12 * HOUR_IN_MILLIS;
+
+    private static final DayStrings STRINGS = new DayStrings() {
+        @Override
+        public String getToday() {
+            return "Today";
+        }
+
+        @Override
+        public String getTomorrow() {
+            return "Tomorrow";
+        }
+
+        @Override
+        public String formatFullFriendlyDate(String day, String monthDay) {
+            return day + ", " + monthDay;
+        }
+    };
+
+    private Locale mLocale;
+    private FriendlyDates mDates;
+
+    // The day and month names come from the default locale
+    @Before
+    public void setUp() {
+        mLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+        mDates = new FriendlyDates(STRINGS, TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mLocale);
+    }
+
+    @Test
+    public void testJulianDay() {
+        assertEquals(2457024, FriendlyDates.getJulianDay(NOW, 0));
+        assertEquals(2457025, FriendlyDates.getJulianDay(NOW + DAY_IN_MILLIS, 0));
+        // Noon at UTC is already the next day twelve hours ahead, and still the same one behind
+        assertEquals(2457025, FriendlyDates.getJulianDay(NOW, 12 * 60 * 60));
+        assertEquals(2457024, FriendlyDates.getJulianDay(NOW, -11 * 60 * 60));
+    }
+
+    @Test
+    public void testToday() {
+        assertEquals("Today, January 01", mDates.getFriendlyDayString(NOW, NOW, true));
+        assertEquals("Today", mDates.getFriendlyDayString(NOW, NOW, false));
+        // Any time of the day
+        assertEquals("Today", mDates.getDayName(NOW - 12 * HOUR_IN_MILLIS, NOW));
+        assertEquals("Today", mDates.getDayName(NOW + 12 * HOUR_IN_MILLIS - 1, NOW));
+        assertEquals("Today, January 01", mDates.getFullFriendlyDayString(NOW, NOW));
+    }
+
+    @Test
+    public void testTomorrow() {
+        assertEquals("Tomorrow", mDates.getFriendlyDayString(NOW + DAY_IN_MILLIS, NOW, true));
+        assertEquals("Tomorrow", mDates.getDayName(NOW + 12 * HOUR_IN_MILLIS, NOW));
+        assertEquals("Tomorrow, January 02",
+                mDates.getFullFriendlyDayString(NOW + DAY_IN_MILLIS, NOW));
+    }
+
+    @Test
+    public void testWithinAWeek() {
+        assertEquals("Saturday", mDates.getFriendlyDayString(NOW + 2 * DAY_IN_MILLIS, NOW, true));
+        assertEquals("Wednesday",
+                mDates.getFriendlyDayString(NOW + 6 * DAY_IN_MILLIS, NOW, true));
+        assertEquals("Saturday, January 03",
+                mDates.getFullFriendlyDayString(NOW + 2 * DAY_IN_MILLIS, NOW));
+    }
+
+    @Test
+    public void testFarDates() {
+        assertEquals("Thu Jan 08", mDates.getFriendlyDayString(NOW + 7 * DAY_IN_MILLIS, NOW, true));
+        assertEquals("Sun Feb 01",
+                mDates.getFriendlyDayString(NOW + 31 * DAY_IN_MILLIS, NOW, false));
+        assertEquals("February 01", mDates.getFormattedMonthDay(NOW + 31 * DAY_IN_MILLIS));
+        // Far days still have a name of their own
+        assertEquals("Thursday", mDates.getDayName(NOW + 7 * DAY_IN_MILLIS, NOW));
+    }
+
+    /*
+        Days start at midnight in the time zone of the dates, not at UTC.
+     */
+    @Test
+    public void testTimeZone() {
+        FriendlyDates tokyo = new FriendlyDates(STRINGS, TimeZone.getTimeZone("Asia/Tokyo"));
+        // 23:00 at UTC is 08:00 of the next day in Tokyo
+        long lateEvening = NOW + 11 * HOUR_IN_MILLIS;
+        long nextMorning = lateEvening + 2 * HOUR_IN_MILLIS;
+        assertEquals("Tomorrow", mDates.getDayName(nextMorning, lateEvening));
+        assertEquals("Today", tokyo.getDayName(nextMorning, lateEvening));
+        assertEquals("January 02", tokyo.getFormattedMonthDay(lateEvening));
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TestHourlyForecastParser {
+    private static final String CITY =
+            "\"city\":{\"id\":5845459,\"name\":\"North Pole\","
+                    + "\"coord\":{\"lat\":64.75,\"lon\":-147.35},\"country\":\"US\"}";
+    private static final long FIRST_STEP = 1420070400;
+
+    private static String step(int index, String precipitation) {
+        return "{\"dt\":" + (FIRST_STEP + index * 10800) + ","
+                + "\"main\":{\"temp\":" + (-10.5 + index) + ",\"temp_min\":-12,"
+                + "\"pressure\":" + (1010 + index) + ",\"humidity\":" + (80 + index) + "},"
+                + "\"weather\":[{\"id\":" + (600 + index) + ",\"main\":\"Snow\","
+                + "\"description\":\"light snow\",\"icon\":\"13n\"}],"
+                + "\"clouds\":{\"all\":90},"
+                + "\"wind\":{\"speed\":" + (2.5 + index) + ",\"deg\":" + (180 + index) + "},"
+                + precipitation
+                + "\"dt_txt\":\"2015-01-01 00:00:00\"}";
+    }
+
+    static class RecordingHandler implements HourlyForecastParser.Handler {
+        String cityName;
+        double lat;
+        double lon;
+        final List<HourlyForecastParser.Step> steps = new ArrayList<>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onStep(HourlyForecastParser.Step step) {
+            // The parser reuses the step
+            HourlyForecastParser.Step copy = new HourlyForecastParser.Step();
+            copy.time = step.time;
+            copy.temperature = step.temperature;
+            copy.pressure = step.pressure;
+            copy.humidity = step.humidity;
+            copy.windSpeed = step.windSpeed;
+            copy.windDirection = step.windDirection;
+            copy.precipitation = step.precipitation;
+            copy.description = step.description;
+            copy.weatherId = step.weatherId;
+            steps.add(copy);
+        }
+    }
+
+    private static RecordingHandler parse(String json, int expectedCode)
+            throws IOException, ForecastParser.ForecastParseException {
+        RecordingHandler handler = new RecordingHandler();
+        assertEquals(expectedCode,
+                new HourlyForecastParser().parse(new StringReader(json), handler));
+        return handler;
+    }
+
+    private static void assertParseFails(String json) throws IOException {
+        try {
+            new HourlyForecastParser().parse(new StringReader(json), new RecordingHandler());
+            fail("Error: " + json + " was parsed");
+        } catch (ForecastParser.ForecastParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testForecast() throws Exception {
+        RecordingHandler handler = parse("{\"cod\":\"200\",\"message\":0.0036,\"cnt\":3,"
+                + "\"list\":[" + step(0, "") + ","
+                + step(1, "\"snow\":{\"3h\":0.25},") + ","
+                + step(2, "\"rain\":{\"3h\":0.5},\"snow\":{\"3h\":1.25},") + "]," + CITY + "}",
+                HttpURLConnection.HTTP_OK);
+
+        assertEquals("North Pole", handler.cityName);
+        assertEquals(64.75, handler.lat, 0);
+        assertEquals(-147.35, handler.lon, 0);
+        assertEquals(3, handler.steps.size());
+
+        HourlyForecastParser.Step step = handler.steps.get(1);
+        assertEquals((FIRST_STEP + 10800) * 1000, step.time);
+        assertEquals(-9.5, step.temperature, 0);
+        assertEquals(1011, step.pressure, 0);
+        assertEquals(81, step.humidity);
+        assertEquals(3.5, step.windSpeed, 0);
+        assertEquals(181, step.windDirection, 0);
+        assertEquals("Snow", step.description);
+        assertEquals(601, step.weatherId);
+
+        // Rain and snow add up, and are 0 when neither is sent
+        assertEquals(0, handler.steps.get(0).precipitation, 0);
+        assertEquals(0.25, step.precipitation, 0);
+        assertEquals(1.75, handler.steps.get(2).precipitation, 0);
+    }
+
+    @Test
+    public void testErrorCode() throws Exception {
+        RecordingHandler handler = parse("{\"cod\":\"404\",\"message\":\"city not found\"}",
+                HttpURLConnection.HTTP_NOT_FOUND);
+        assertNull(handler.cityName);
+        assertEquals(0, handler.steps.size());
+    }
+
+    /*
+        Fields we don't read are skipped however deeply they nest, and an empty rain object
+        counts as no rain.
+     */
+    @Test
+    public void testUnknownFields() throws Exception {
+        RecordingHandler handler = parse("{\"extra\":[{\"list\":{}}]," + CITY + ",\"list\":["
+                + step(0, "\"rain\":{},\"sys\":{\"pod\":[\"n\",{\"x\":null}]},") + "]}",
+                HttpURLConnection.HTTP_OK);
+        assertEquals(1, handler.steps.size());
+        assertEquals(0, handler.steps.get(0).precipitation, 0);
+    }
+
+    /*
+        A fractional humidity is cut to a whole percentage, as JSONObject.getInt did.
+     */
+    @Test
+    public void testFractionalHumidity() throws Exception {
+        RecordingHandler handler = parse("{" + CITY + ",\"list\":["
+                + step(0, "").replace("\"humidity\":80", "\"humidity\":92.6") + "]}",
+                HttpURLConnection.HTTP_OK);
+        assertEquals(92, handler.steps.get(0).humidity);
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        assertParseFails("<html>Bad gateway</html>");
+        // A string where a number belongs
+        assertParseFails("{" + CITY + ",\"list\":["
+                + step(0, "").replace("\"dt\":" + FIRST_STEP, "\"dt\":\"soon\"") + "]}");
+        // A step without its wind
+        assertParseFails("{" + CITY + ",\"list\":["
+                + step(0, "").replaceAll("\"wind\":\\{[^}]*\\},", "") + "]}");
+        assertParseFails("[" + step(0, "") + "]");
+    }
+}
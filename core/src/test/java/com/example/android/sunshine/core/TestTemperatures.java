@@ -0,0 +1,52 @@
+package com.example.android.sunshine.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTemperatures {
+    private static final String FORMAT = "%1.0f\u00B0";
+
+    private Locale mLocale;
+
+    // The decimal separator comes from the default locale
+    @Before
+    public void setUp() {
+        mLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mLocale);
+    }
+
+    @Test
+    public void testToFahrenheit() {
+        assertEquals(32, Temperatures.toFahrenheit(0), 1e-9);
+        assertEquals(212, Temperatures.toFahrenheit(100), 1e-9);
+        assertEquals(-40, Temperatures.toFahrenheit(-40), 1e-9);
+        assertEquals(98.6, Temperatures.toFahrenheit(37), 1e-9);
+    }
+
+    @Test
+    public void testMetric() {
+        assertEquals("21\u00B0", Temperatures.format(FORMAT, 21.2, true));
+        assertEquals("22\u00B0", Temperatures.format(FORMAT, 21.5, true));
+        assertEquals("-5\u00B0", Temperatures.format(FORMAT, -5, true));
+        assertEquals("21.2", Temperatures.format("%.1f", 21.2, true));
+    }
+
+    @Test
+    public void testImperial() {
+        assertEquals("212\u00B0", Temperatures.format(FORMAT, 100, false));
+        // 70.16
+        assertEquals("70\u00B0", Temperatures.format(FORMAT, 21.2, false));
+        assertEquals("-40\u00B0", Temperatures.format(FORMAT, -40, false));
+        assertEquals("23\u00B0", Temperatures.format(FORMAT, -5, false));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.sunshine.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestWeatherCondition {
+    /*
+        The table has to give the same answers as the chain of ranges it replaced.
+     */
+    @Test
+    public void testForWeatherId() {
+        assertEquals(WeatherCondition.STORM, WeatherCondition.forWeatherId(200));
+        assertEquals(WeatherCondition.STORM, WeatherCondition.forWeatherId(232));
+        assertEquals(WeatherCondition.LIGHT_RAIN, WeatherCondition.forWeatherId(321));
+        assertEquals(WeatherCondition.RAIN, WeatherCondition.forWeatherId(504));
+        assertEquals(WeatherCondition.SNOW, WeatherCondition.forWeatherId(511));
+        assertEquals(WeatherCondition.RAIN, WeatherCondition.forWeatherId(531));
+        assertEquals(WeatherCondition.SNOW, WeatherCondition.forWeatherId(600));
+        assertEquals(WeatherCondition.FOG, WeatherCondition.forWeatherId(761));
+        assertEquals(WeatherCondition.STORM, WeatherCondition.forWeatherId(781));
+        assertEquals(WeatherCondition.CLEAR, WeatherCondition.forWeatherId(800));
+        assertEquals(WeatherCondition.LIGHT_CLOUDS, WeatherCondition.forWeatherId(801));
+        assertEquals(WeatherCondition.CLOUDS, WeatherCondition.forWeatherId(804));
+
+        assertNull(WeatherCondition.forWeatherId(233));
+        assertNull(WeatherCondition.forWeatherId(900));
+        assertNull(WeatherCondition.forWeatherId(-1));
+        assertNull(WeatherCondition.forWeatherId(1000));
+    }
+
+    @Test
+    public void testArtUrl() {
+        assertEquals("http://example.com/light_rain.png",
+                WeatherCondition.getArtUrl("http://example.com/%s.png", 300));
+        assertNull(WeatherCondition.getArtUrl("http://example.com/%s.png", 100));
+    }
+
+    @Test
+    public void testDescriptionId() {
+        assertEquals(200, WeatherCondition.getDescriptionId(211));
+        assertEquals(300, WeatherCondition.getDescriptionId(310));
+        assertEquals(500, WeatherCondition.getDescriptionId(500));
+        assertEquals(962, WeatherCondition.getDescriptionId(962));
+        assertEquals(-1, WeatherCondition.getDescriptionId(505));
+        assertEquals(-1, WeatherCondition.getDescriptionId(5000));
+    }
+}